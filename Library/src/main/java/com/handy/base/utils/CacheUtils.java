@@ -7,15 +7,25 @@ import android.graphics.Canvas;
 import android.graphics.PixelFormat;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.IntDef;
+import android.util.LruCache;
 
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
@@ -24,12 +34,45 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.RandomAccessFile;
 import java.io.Serializable;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 /**
  * <pre>
@@ -43,10 +86,45 @@ public class CacheUtils {
 
     public static final int TIME_HOUR = 60 * 60;
     public static final int TIME_DAY = TIME_HOUR * 24;
+    public static final int WRITE_THROUGH = 0; // 同步写入内存和磁盘
+    public static final int WRITE_BACK = 1;    // 先写入内存，由后台线程异步写入磁盘
+    public static final int COMPRESS_NONE = 0; // 不压缩
+    public static final int COMPRESS_AUTO = 1; // 使用deflate压缩，自动跳过已压缩或压缩无收益的数据
+    private static final int COMPRESS_DEFAULT = -1; // 使用实例的压缩模式
+    private static final int MIN_COMPRESS_SIZE = 256; // 小于该大小的数据不压缩
     private static final int MAX_SIZE = 1000 * 1000 * 50; // 50 mb
     private static final int MAX_COUNT = Integer.MAX_VALUE; // 不限制存放数据的数量
-    private static Map<String, CacheUtils> mInstanceMap = new HashMap<>();
+    private static final int NO_SAVE_TIME = -1; // 永不过期
+    private static final int MAP_THRESHOLD = 64 * 1024; // 超过该大小的数据使用内存映射读取
+    private static final long NO_DUE_TIME = Long.MAX_VALUE;
+    private static final int SWEEP_BATCH = 64; // 过期清理每批处理的文件数
+    private static final int LOCK_STRIPES = 64; // 文件锁的分段数
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+    private static final char[] HEX_DIGITS = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+    private static final Map<String, CacheUtils> mInstanceMap = new ConcurrentHashMap<>();
+    private static final ThreadFactory DAEMON_THREAD_FACTORY = new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            // 后台线程不阻止进程退出
+            Thread thread = new Thread(r, "CacheUtils");
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
     private CacheManager mCacheManager;
+    private volatile MemoryCache mMemoryCache; // 内存缓存层，默认关闭
+    private final AtomicLong mDiskHitCount = new AtomicLong();
+    private final AtomicLong mDiskMissCount = new AtomicLong();
+    private final AtomicLong mLastSweepReclaimedBytes = new AtomicLong();
+    private final AtomicLong mTotalSweepReclaimedBytes = new AtomicLong();
+    private ScheduledExecutorService mSweepExecutor;
+    private ExecutorService mIoExecutor; // 异步读写线程，按提交顺序执行
+    private static Handler sMainHandler;
+    private Serializer<Object> mObjectSerializer = Serializers.serializable(); // Serializable数据的默认序列化方式
+    private volatile int mCompressMode = COMPRESS_NONE;
+    private volatile byte[] mCompressDictionary;
+    private Serializer<Bitmap> mBitmapSerializer = Serializers.bitmap(Bitmap.CompressFormat.PNG, 100); // bitmap数据的默认序列化方式
 
     private CacheUtils(File cacheDir, long max_size, int max_count) {
         if (!cacheDir.exists() && !cacheDir.mkdirs()) {
@@ -75,10 +153,16 @@ public class CacheUtils {
     }
 
     public static CacheUtils get(File cacheDir, long max_zise, int max_count) {
-        CacheUtils manager = mInstanceMap.get(cacheDir.getAbsoluteFile() + myPid());
+        String name = cacheDir.getAbsolutePath() + myPid();
+        CacheUtils manager = mInstanceMap.get(name);
         if (manager == null) {
-            manager = new CacheUtils(cacheDir, max_zise, max_count);
-            mInstanceMap.put(cacheDir.getAbsolutePath() + myPid(), manager);
+            synchronized (mInstanceMap) {
+                manager = mInstanceMap.get(name);
+                if (manager == null) {
+                    manager = new CacheUtils(cacheDir, max_zise, max_count);
+                    mInstanceMap.put(name, manager);
+                }
+            }
         }
         return manager;
     }
@@ -88,88 +172,375 @@ public class CacheUtils {
     }
 
     ///////////////////////////////////////////////////////////////////////////
-    // String数据 读写
+    // 内存缓存层
     ///////////////////////////////////////////////////////////////////////////
 
     /**
-     * 保存 String数据 到 缓存中
+     * 开启内存缓存层
+     * <p>读取时优先命中内存，未命中再读取磁盘并回填内存；内存按字节数做LRU淘汰。</p>
      *
-     * @param key   保存的key
-     * @param value 保存的String数据
+     * @param maxBytes    内存缓存最大字节数
+     * @param writePolicy 写入策略 {@link #WRITE_THROUGH} 或 {@link #WRITE_BACK}
      */
-    public void put(String key, String value) {
+    public synchronized void enableMemoryCache(int maxBytes, @WritePolicy int writePolicy) {
+        MemoryCache old = mMemoryCache;
+        mMemoryCache = new MemoryCache(maxBytes, writePolicy);
+        if (old != null) {
+            old.shutdown();
+        }
+    }
+
+    /**
+     * 关闭内存缓存层，关闭前会将未写入磁盘的数据写入磁盘
+     */
+    public synchronized void disableMemoryCache() {
+        MemoryCache old = mMemoryCache;
+        mMemoryCache = null;
+        if (old != null) {
+            old.shutdown();
+        }
+    }
+
+    /**
+     * 将{@link #WRITE_BACK}策略下尚未写入磁盘的数据立即写入磁盘
+     */
+    public void flush() {
+        MemoryCache memoryCache = mMemoryCache;
+        if (memoryCache != null) {
+            memoryCache.flush();
+        }
+    }
+
+    /**
+     * 获取各缓存层的命中统计
+     *
+     * @return 命中统计
+     */
+    public CacheStats getStats() {
+        MemoryCache memoryCache = mMemoryCache;
+        return new CacheStats(memoryCache == null ? 0 : memoryCache.hitCount.get(),
+                memoryCache == null ? 0 : memoryCache.missCount.get(),
+                mDiskHitCount.get(), mDiskMissCount.get());
+    }
+
+    private CacheEntry getFromMemory(String key) {
+        MemoryCache memoryCache = mMemoryCache;
+        return memoryCache == null ? null : memoryCache.get(key);
+    }
+
+    private void putToMemory(String key, CacheEntry entry) {
+        MemoryCache memoryCache = mMemoryCache;
+        if (memoryCache != null) {
+            memoryCache.put(key, entry);
+        }
+    }
+
+    /**
+     * 写入内存缓存层
+     *
+     * @return {@code true}: 已交由内存缓存层异步写入磁盘<br>{@code false}: 需要调用方同步写入磁盘
+     */
+    private boolean writeToMemory(String key, CacheEntry entry) {
+        MemoryCache memoryCache = mMemoryCache;
+        if (memoryCache == null) return false;
+        memoryCache.put(key, entry);
+        if (memoryCache.writePolicy == WRITE_BACK) {
+            memoryCache.markDirty(key, entry);
+            return true;
+        }
+        return false;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 压缩
+    ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * 设置写入磁盘时的压缩模式，只影响之后写入的数据
+     * <p>{@link #COMPRESS_AUTO} 使用deflate压缩，PNG、JPEG、GIF、WEBP、zip、gzip等已压缩的数据、
+     * 过小的数据以及压缩后体积没有明显减小的数据按原样保存。读取时根据文件头自动解压。</p>
+     *
+     * @param compressMode 压缩模式 {@link #COMPRESS_NONE} 或 {@link #COMPRESS_AUTO}
+     */
+    public void setCompressMode(@CompressMode int compressMode) {
+        mCompressMode = compressMode;
+    }
+
+    /**
+     * 设置deflate预置字典
+     * <p>字典应包含数据中常见的片段，如JSON的字段名，可明显提高短文本的压缩率。
+     * 使用其他字典压缩的数据无法解压，读取时会被当作损坏的数据删除，因此更换字典相当于清除已压缩的数据。</p>
+     *
+     * @param dictionary 字典，为null时不使用字典
+     */
+    public void setCompressDictionary(byte[] dictionary) {
+        mCompressDictionary = dictionary;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 过期清理
+    ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * 启动后台过期清理
+     * <p>按过期时间索引定期删除已过期的缓存文件，释放被过期数据占用的空间。</p>
+     *
+     * @param period 清理周期
+     * @param unit   时间单位
+     */
+    public synchronized void startSweeper(long period, TimeUnit unit) {
+        stopSweeper();
+        mSweepExecutor = Executors.newSingleThreadScheduledExecutor(DAEMON_THREAD_FACTORY);
+        mSweepExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                sweepExpired();
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * 停止后台过期清理
+     */
+    public synchronized void stopSweeper() {
+        if (mSweepExecutor != null) {
+            mSweepExecutor.shutdown();
+            mSweepExecutor = null;
+        }
+    }
+
+    /**
+     * 立即删除所有已过期的缓存文件
+     * <p>会读取文件头确认过期，应在子线程中调用。</p>
+     *
+     * @return 本次释放的空间大小
+     */
+    public long sweepExpired() {
+        long reclaimedBytes = mCacheManager.sweepExpired();
+        mLastSweepReclaimedBytes.set(reclaimedBytes);
+        mTotalSweepReclaimedBytes.addAndGet(reclaimedBytes);
+        return reclaimedBytes;
+    }
+
+    /**
+     * 获取最近一次过期清理释放的空间大小
+     *
+     * @return 字节数
+     */
+    public long getLastSweepReclaimedBytes() {
+        return mLastSweepReclaimedBytes.get();
+    }
+
+    /**
+     * 获取过期清理累计释放的空间大小
+     *
+     * @return 字节数
+     */
+    public long getTotalSweepReclaimedBytes() {
+        return mTotalSweepReclaimedBytes.get();
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 缓存条目 读写
+    ///////////////////////////////////////////////////////////////////////////
+
+    private void putEntry(String key, CacheEntry entry) {
+        if (writeToMemory(key, entry)) return;
+        writeEntry(key, entry);
+    }
+
+    /**
+     * 将缓存条目写入磁盘
+     * <p>头部和数据通过一次聚集写入临时文件，再原子重命名为缓存文件，读取方不会读到写了一半的文件。</p>
+     */
+    private void writeEntry(String key, CacheEntry entry) {
         File file = mCacheManager.newFile(key);
-        BufferedWriter out = null;
+        Lock lock = mCacheManager.lockFor(file).writeLock();
+        lock.lock();
         try {
-            out = new BufferedWriter(new FileWriter(file), 1024);
-            out.write(value);
-        } catch (IOException e) {
-            e.printStackTrace();
+            if (writeFile(key, entry, file)) {
+                mCacheManager.put(file, EntryHeader.dueTime(entry.writeTime, entry.saveTime));
+            }
         } finally {
-            if (out != null) {
-                try {
-                    out.flush();
-                    out.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 批量写入磁盘，所有文件写完后统一更新索引并只做一次淘汰
+     */
+    private void writeEntries(Map<String, CacheEntry> entries) {
+        Map<File, Long> written = new LinkedHashMap<>();
+        for (Map.Entry<String, CacheEntry> item : entries.entrySet()) {
+            CacheEntry entry = item.getValue();
+            File file = mCacheManager.newFile(item.getKey());
+            Lock lock = mCacheManager.lockFor(file).writeLock();
+            lock.lock();
+            try {
+                if (writeFile(item.getKey(), entry, file)) {
+                    written.put(file, EntryHeader.dueTime(entry.writeTime, entry.saveTime));
                 }
+            } finally {
+                lock.unlock();
             }
-            mCacheManager.put(file);
         }
+        mCacheManager.putAll(written);
     }
 
     /**
-     * 保存 String数据 到 缓存中
+     * 写入单个缓存文件，调用方需持有文件写锁
      *
-     * @param key      保存的key
-     * @param value    保存的String数据
-     * @param saveTime 保存的时间，单位：秒
+     * @return 是否写入成功
      */
-    public void put(String key, String value, int saveTime) {
-        put(key, Utils.newStringWithDateInfo(saveTime, value));
+    private boolean writeFile(String key, CacheEntry entry, File file) {
+        File tempFile = new File(file.getPath() + TEMP_SUFFIX);
+        byte[] payload = entry.asBytes();
+        int compressMode = entry.compressMode == COMPRESS_DEFAULT ? mCompressMode : entry.compressMode;
+        byte[] compressed = compressMode == COMPRESS_AUTO ? Deflate.compress(payload, mCompressDictionary) : null;
+        FileOutputStream out = null;
+        try {
+            File parent = file.getParentFile();
+            if (!parent.exists() && !parent.mkdirs()) {
+                throw new IOException("can't make dirs in " + parent.getAbsolutePath());
+            }
+            out = new FileOutputStream(tempFile);
+            byte[] stored = compressed != null ? compressed : payload;
+            ByteBuffer[] buffers = {EntryHeader.encode(entry.writeTime, entry.saveTime, key.getBytes(CHARSET), stored,
+                    compressed != null ? payload.length : -1), ByteBuffer.wrap(stored)};
+            FileChannel channel = out.getChannel();
+            while (buffers[0].hasRemaining() || buffers[1].hasRemaining()) {
+                channel.write(buffers);
+            }
+            out.close();
+            out = null;
+            mCacheManager.markDirty(file);
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("can't rename " + tempFile.getAbsolutePath());
+            }
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            tempFile.delete();
+            mCacheManager.clearDirty(file);
+            return false;
+        } finally {
+            CloseUtils.closeIO(out);
+        }
     }
 
     /**
-     * 读取 String数据
+     * 读取缓存条目，过期或损坏的条目会被删除
      *
-     * @param key
-     * @return String 数据
+     * @param key  保存的key
+     * @param text 是否以String形式回填内存缓存层
+     * @return 缓存条目，不存在时返回null
      */
-    public String getAsString(String key) {
+    private CacheEntry getEntry(String key, boolean text) {
+        CacheEntry cached = getFromMemory(key);
+        if (cached != null) {
+            if (!cached.isDue()) {
+                return cached;
+            }
+            remove(key);
+            return null;
+        }
         File file = mCacheManager.get(key);
-        if (!file.exists())
+        if (!file.exists()) {
+            mDiskMissCount.incrementAndGet();
             return null;
+        }
+        mDiskHitCount.incrementAndGet();
+        RandomAccessFile RAFile = null;
         boolean removeFile = false;
-        BufferedReader in = null;
+        Lock lock = mCacheManager.lockFor(file).readLock();
+        lock.lock();
         try {
-            in = new BufferedReader(new FileReader(file));
-            String readString = "";
-            String currentLine;
-            while ((currentLine = in.readLine()) != null) {
-                readString += currentLine;
-            }
-            if (!Utils.isDue(readString)) {
-                return Utils.clearDateInfo(readString);
-            } else {
+            RAFile = new RandomAccessFile(file, "r");
+            EntryHeader header = EntryHeader.read(RAFile, key);
+            if (header.unsupported) {
+                removeFile = true;
+                return null;
+            }
+            if (header.keyMismatch) {
+                // 摘要冲突，文件属于其他key
+                return null;
+            }
+            // 只读取头部即可判断是否过期，过期条目不会读取数据部分
+            if (header.isDue()) {
+                removeFile = true;
+                return null;
+            }
+            byte[] payload = header.readPayload(RAFile, mCompressDictionary);
+            if (payload == null) {
                 removeFile = true;
                 return null;
             }
+            CacheEntry entry = new CacheEntry(text ? new String(payload, CHARSET) : payload,
+                    header.writeTime, header.saveTime);
+            putToMemory(key, entry);
+            return entry;
+        } catch (FileNotFoundException e) {
+            // 文件在检查后被淘汰
+            return null;
         } catch (IOException e) {
             e.printStackTrace();
             return null;
         } finally {
-            if (in != null) {
-                try {
-                    in.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
+            CloseUtils.closeIO(RAFile);
+            lock.unlock();
             if (removeFile)
                 remove(key);
         }
     }
 
+    ///////////////////////////////////////////////////////////////////////////
+    // String数据 读写
+    ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * 保存 String数据 到 缓存中
+     *
+     * @param key   保存的key
+     * @param value 保存的String数据
+     */
+    public void put(String key, String value) {
+        put(key, value, NO_SAVE_TIME);
+    }
+
+    /**
+     * 保存 String数据 到 缓存中
+     *
+     * @param key      保存的key
+     * @param value    保存的String数据
+     * @param saveTime 保存的时间，单位：秒
+     */
+    public void put(String key, String value, int saveTime) {
+        putEntry(key, new CacheEntry(value, System.currentTimeMillis(), saveTime));
+    }
+
+    /**
+     * 保存 String数据 到 缓存中，单独指定该条数据的压缩模式
+     *
+     * @param key          保存的key
+     * @param value        保存的String数据
+     * @param saveTime     保存的时间，单位：秒，{@code -1}表示永不过期
+     * @param compressMode 压缩模式 {@link #COMPRESS_NONE} 或 {@link #COMPRESS_AUTO}
+     */
+    public void put(String key, String value, int saveTime, @CompressMode int compressMode) {
+        putEntry(key, new CacheEntry(value, System.currentTimeMillis(), saveTime, compressMode));
+    }
+
+    /**
+     * 读取 String数据
+     *
+     * @param key
+     * @return String 数据
+     */
+    public String getAsString(String key) {
+        CacheEntry entry = getEntry(key, true);
+        return entry == null ? null : entry.asString();
+    }
+
     ///////////////////////////////////////////////////////////////////////////
     // JSONObject 数据 读写
     ///////////////////////////////////////////////////////////////////////////
@@ -265,24 +636,7 @@ public class CacheUtils {
      * @param value 保存的数据
      */
     public void put(String key, byte[] value) {
-        File file = mCacheManager.newFile(key);
-        FileOutputStream out = null;
-        try {
-            out = new FileOutputStream(file);
-            out.write(value);
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            if (out != null) {
-                try {
-                    out.flush();
-                    out.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-            mCacheManager.put(file);
-        }
+        put(key, value, NO_SAVE_TIME);
     }
 
     /**
@@ -293,7 +647,19 @@ public class CacheUtils {
      * @param saveTime 保存的时间，单位：秒
      */
     public void put(String key, byte[] value, int saveTime) {
-        put(key, Utils.newByteArrayWithDateInfo(saveTime, value));
+        putEntry(key, new CacheEntry(value == null ? new byte[0] : value.clone(), System.currentTimeMillis(), saveTime));
+    }
+
+    /**
+     * 保存 byte数据 到 缓存中，单独指定该条数据的压缩模式
+     *
+     * @param key          保存的key
+     * @param value        保存的数据
+     * @param saveTime     保存的时间，单位：秒，{@code -1}表示永不过期
+     * @param compressMode 压缩模式 {@link #COMPRESS_NONE} 或 {@link #COMPRESS_AUTO}
+     */
+    public void put(String key, byte[] value, int saveTime, @CompressMode int compressMode) {
+        putEntry(key, new CacheEntry(value == null ? new byte[0] : value.clone(), System.currentTimeMillis(), saveTime, compressMode));
     }
 
     /**
@@ -303,32 +669,76 @@ public class CacheUtils {
      * @return byte 数据
      */
     public byte[] getAsBinary(String key) {
+        CacheEntry entry = getEntry(key, false);
+        return entry == null ? null : entry.copyBytes();
+    }
+
+    /**
+     * 获取 byte 数据的只读ByteBuffer
+     * <p>适用于地图瓦片、附件等大数据：超过64KB的数据通过内存映射直接读取文件，不会复制到堆内存，
+     * 此时不校验数据的CRC32；较小的数据按{@link #getAsBinary(String)}读取后包装返回。</p>
+     *
+     * @param key
+     * @return 只读ByteBuffer，position为0，limit为数据长度
+     */
+    public ByteBuffer getAsByteBuffer(String key) {
+        CacheEntry cached = getFromMemory(key);
+        if (cached != null) {
+            if (!cached.isDue()) {
+                return ByteBuffer.wrap(cached.asBytes()).asReadOnlyBuffer();
+            }
+            remove(key);
+            return null;
+        }
+        File file = mCacheManager.get(key);
+        if (!file.exists()) {
+            mDiskMissCount.incrementAndGet();
+            return null;
+        }
+        mDiskHitCount.incrementAndGet();
         RandomAccessFile RAFile = null;
         boolean removeFile = false;
+        Lock lock = mCacheManager.lockFor(file).readLock();
+        lock.lock();
         try {
-            File file = mCacheManager.get(key);
-            if (!file.exists())
-                return null;
             RAFile = new RandomAccessFile(file, "r");
-            byte[] byteArray = new byte[(int) RAFile.length()];
-            RAFile.read(byteArray);
-            if (!Utils.isDue(byteArray)) {
-                return Utils.clearDateInfo(byteArray);
-            } else {
+            EntryHeader header = EntryHeader.read(RAFile, key);
+            if (header.unsupported) {
                 removeFile = true;
                 return null;
             }
-        } catch (Exception e) {
+            if (header.keyMismatch) {
+                return null;
+            }
+            if (header.isDue()) {
+                removeFile = true;
+                return null;
+            }
+            // 压缩的数据需要解压，无法直接映射
+            if (header.payloadLength < MAP_THRESHOLD || header.isDeflated()) {
+                byte[] payload = header.readPayload(RAFile, mCompressDictionary);
+                if (payload == null) {
+                    removeFile = true;
+                    return null;
+                }
+                putToMemory(key, new CacheEntry(payload, header.writeTime, header.saveTime));
+                return ByteBuffer.wrap(payload).asReadOnlyBuffer();
+            }
+            if (header.payloadOffset + header.payloadLength > RAFile.length()) {
+                removeFile = true;
+                return null;
+            }
+            // 映射在通道关闭后依然有效
+            return RAFile.getChannel().map(FileChannel.MapMode.READ_ONLY, header.payloadOffset, header.payloadLength);
+        } catch (FileNotFoundException e) {
+            // 文件在检查后被淘汰
+            return null;
+        } catch (IOException e) {
             e.printStackTrace();
             return null;
         } finally {
-            if (RAFile != null) {
-                try {
-                    RAFile.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
+            CloseUtils.closeIO(RAFile);
+            lock.unlock();
             if (removeFile)
                 remove(key);
         }
@@ -345,7 +755,7 @@ public class CacheUtils {
      * @param value 保存的value
      */
     public void put(String key, Serializable value) {
-        put(key, value, -1);
+        put(key, value, NO_SAVE_TIME);
     }
 
     /**
@@ -356,26 +766,7 @@ public class CacheUtils {
      * @param saveTime 保存的时间，单位：秒
      */
     public void put(String key, Serializable value, int saveTime) {
-        ByteArrayOutputStream baos = null;
-        ObjectOutputStream oos = null;
-        try {
-            baos = new ByteArrayOutputStream();
-            oos = new ObjectOutputStream(baos);
-            oos.writeObject(value);
-            byte[] data = baos.toByteArray();
-            if (saveTime != -1) {
-                put(key, data, saveTime);
-            } else {
-                put(key, data);
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            try {
-                oos.close();
-            } catch (IOException e) {
-            }
-        }
+        put(key, value, mObjectSerializer, saveTime);
     }
 
     /**
@@ -385,35 +776,16 @@ public class CacheUtils {
      * @return Serializable 数据
      */
     public Object getAsObject(String key) {
-        byte[] data = getAsBinary(key);
-        if (data != null) {
-            ByteArrayInputStream bais = null;
-            ObjectInputStream ois = null;
-            try {
-                bais = new ByteArrayInputStream(data);
-                ois = new ObjectInputStream(bais);
-                Object reObject = ois.readObject();
-                return reObject;
-            } catch (Exception e) {
-                e.printStackTrace();
-                return null;
-            } finally {
-                try {
-                    if (bais != null)
-                        bais.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-                try {
-                    if (ois != null)
-                        ois.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-        return null;
+        return get(key, mObjectSerializer);
+    }
 
+    /**
+     * 设置 Serializable数据 的默认序列化方式，默认为Java序列化
+     *
+     * @param serializer 序列化方式
+     */
+    public void setObjectSerializer(Serializer<Object> serializer) {
+        mObjectSerializer = serializer;
     }
 
     ///////////////////////////////////////////////////////////////////////////
@@ -427,7 +799,7 @@ public class CacheUtils {
      * @param value 保存的bitmap数据
      */
     public void put(String key, Bitmap value) {
-        put(key, Utils.Bitmap2Bytes(value));
+        put(key, value, NO_SAVE_TIME);
     }
 
     /**
@@ -438,7 +810,7 @@ public class CacheUtils {
      * @param saveTime 保存的时间，单位：秒
      */
     public void put(String key, Bitmap value, int saveTime) {
-        put(key, Utils.Bitmap2Bytes(value), saveTime);
+        put(key, value, mBitmapSerializer, saveTime);
     }
 
     /**
@@ -448,10 +820,16 @@ public class CacheUtils {
      * @return bitmap 数据
      */
     public Bitmap getAsBitmap(String key) {
-        if (getAsBinary(key) == null) {
-            return null;
-        }
-        return Utils.Bytes2Bimap(getAsBinary(key));
+        return get(key, mBitmapSerializer);
+    }
+
+    /**
+     * 设置 bitmap数据 的默认序列化方式，默认为质量100的PNG
+     *
+     * @param serializer 序列化方式，如{@link Serializers#bitmap(Bitmap.CompressFormat, int)}
+     */
+    public void setBitmapSerializer(Serializer<Bitmap> serializer) {
+        mBitmapSerializer = serializer;
     }
 
     ///////////////////////////////////////////////////////////////////////////
@@ -486,10 +864,274 @@ public class CacheUtils {
      * @return Drawable 数据
      */
     public Drawable getAsDrawable(String key) {
-        if (getAsBinary(key) == null) {
+        Bitmap bitmap = getAsBitmap(key);
+        if (bitmap == null) {
             return null;
         }
-        return Utils.bitmap2Drawable(Utils.Bytes2Bimap(getAsBinary(key)));
+        return Utils.bitmap2Drawable(bitmap);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 自定义序列化 读写
+    ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * 使用指定的序列化方式保存数据到 缓存中
+     *
+     * @param key        保存的key
+     * @param value      保存的数据
+     * @param serializer 序列化方式
+     */
+    public <T> void put(String key, T value, Serializer<T> serializer) {
+        put(key, value, serializer, NO_SAVE_TIME);
+    }
+
+    /**
+     * 使用指定的序列化方式保存数据到 缓存中
+     *
+     * @param key        保存的key
+     * @param value      保存的数据
+     * @param serializer 序列化方式
+     * @param saveTime   保存的时间，单位：秒
+     */
+    public <T> void put(String key, T value, Serializer<T> serializer, int saveTime) {
+        byte[] data;
+        try {
+            data = serializer.serialize(value);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return;
+        }
+        if (data != null) {
+            put(key, data, saveTime);
+        }
+    }
+
+    /**
+     * 使用指定的序列化方式读取数据
+     *
+     * @param key        读取的key
+     * @param serializer 序列化方式，需与保存时一致
+     * @return 数据，不存在或反序列化失败时返回null
+     */
+    public <T> T get(String key, Serializer<T> serializer) {
+        byte[] data = getAsBinary(key);
+        if (data == null) {
+            return null;
+        }
+        try {
+            return serializer.deserialize(data);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 批量 读写
+    ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * 批量保存 String数据 到 缓存中
+     * <p>所有数据写完后统一更新索引，只做一次淘汰和一次日志刷新。</p>
+     *
+     * @param values 保存的数据
+     */
+    public void putAll(Map<String, String> values) {
+        putAll(values, NO_SAVE_TIME);
+    }
+
+    /**
+     * 批量保存 String数据 到 缓存中
+     *
+     * @param values   保存的数据
+     * @param saveTime 保存的时间，单位：秒
+     */
+    public void putAll(Map<String, String> values, int saveTime) {
+        long writeTime = System.currentTimeMillis();
+        Map<String, CacheEntry> entries = new LinkedHashMap<>(values.size());
+        for (Map.Entry<String, String> value : values.entrySet()) {
+            entries.put(value.getKey(), new CacheEntry(value.getValue(), writeTime, saveTime));
+        }
+        putEntries(entries);
+    }
+
+    /**
+     * 批量保存 byte数据 到 缓存中
+     *
+     * @param values 保存的数据
+     */
+    public void putAllBinary(Map<String, byte[]> values) {
+        putAllBinary(values, NO_SAVE_TIME);
+    }
+
+    /**
+     * 批量保存 byte数据 到 缓存中
+     *
+     * @param values   保存的数据
+     * @param saveTime 保存的时间，单位：秒
+     */
+    public void putAllBinary(Map<String, byte[]> values, int saveTime) {
+        long writeTime = System.currentTimeMillis();
+        Map<String, CacheEntry> entries = new LinkedHashMap<>(values.size());
+        for (Map.Entry<String, byte[]> value : values.entrySet()) {
+            byte[] data = value.getValue();
+            entries.put(value.getKey(), new CacheEntry(data == null ? new byte[0] : data.clone(), writeTime, saveTime));
+        }
+        putEntries(entries);
+    }
+
+    /**
+     * 批量读取 String数据
+     *
+     * @param keys 读取的key
+     * @return 读取到的数据，不存在或已过期的key不包含在结果中
+     */
+    public Map<String, String> getAll(Collection<String> keys) {
+        Map<String, String> values = new LinkedHashMap<>(keys.size());
+        for (String key : keys) {
+            CacheEntry entry = getEntry(key, true);
+            if (entry != null) {
+                values.put(key, entry.asString());
+            }
+        }
+        return values;
+    }
+
+    /**
+     * 批量读取 byte数据
+     *
+     * @param keys 读取的key
+     * @return 读取到的数据，不存在或已过期的key不包含在结果中
+     */
+    public Map<String, byte[]> getAllAsBinary(Collection<String> keys) {
+        Map<String, byte[]> values = new LinkedHashMap<>(keys.size());
+        for (String key : keys) {
+            CacheEntry entry = getEntry(key, false);
+            if (entry != null) {
+                values.put(key, entry.copyBytes());
+            }
+        }
+        return values;
+    }
+
+    private void putEntries(Map<String, CacheEntry> entries) {
+        Map<String, CacheEntry> diskEntries = new LinkedHashMap<>(entries.size());
+        for (Map.Entry<String, CacheEntry> entry : entries.entrySet()) {
+            if (!writeToMemory(entry.getKey(), entry.getValue())) {
+                diskEntries.put(entry.getKey(), entry.getValue());
+            }
+        }
+        if (!diskEntries.isEmpty()) {
+            writeEntries(diskEntries);
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 异步 读写
+    ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * 异步保存 String数据 到 缓存中
+     *
+     * @param key      保存的key
+     * @param value    保存的String数据
+     * @param callback 完成后在主线程回调，可为null
+     * @return 写入任务
+     */
+    public Future<Void> putAsync(final String key, final String value, Callback<Void> callback) {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                put(key, value);
+                return null;
+            }
+        }, callback);
+    }
+
+    /**
+     * 异步批量保存 String数据 到 缓存中
+     *
+     * @param values   保存的数据
+     * @param callback 完成后在主线程回调，可为null
+     * @return 写入任务
+     */
+    public Future<Void> putAllAsync(final Map<String, String> values, Callback<Void> callback) {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                putAll(values);
+                return null;
+            }
+        }, callback);
+    }
+
+    /**
+     * 异步读取 String数据
+     *
+     * @param key      读取的key
+     * @param callback 读取完成后在主线程回调，可为null
+     * @return 读取任务
+     */
+    public Future<String> getAsStringAsync(final String key, Callback<String> callback) {
+        return submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return getAsString(key);
+            }
+        }, callback);
+    }
+
+    /**
+     * 异步批量读取 String数据
+     *
+     * @param keys     读取的key
+     * @param callback 读取完成后在主线程回调，可为null
+     * @return 读取任务
+     */
+    public Future<Map<String, String>> getAllAsync(final Collection<String> keys, Callback<Map<String, String>> callback) {
+        return submit(new Callable<Map<String, String>>() {
+            @Override
+            public Map<String, String> call() {
+                return getAll(keys);
+            }
+        }, callback);
+    }
+
+    /**
+     * 在异步读写线程上执行任务
+     * <p>任务按提交顺序执行，先提交的写入对后提交的读取可见。</p>
+     */
+    private <T> Future<T> submit(final Callable<T> task, final Callback<T> callback) {
+        return getIoExecutor().submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                final T result = task.call();
+                if (callback != null) {
+                    getMainHandler().post(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onResult(result);
+                        }
+                    });
+                }
+                return result;
+            }
+        });
+    }
+
+    private synchronized ExecutorService getIoExecutor() {
+        if (mIoExecutor == null) {
+            mIoExecutor = Executors.newSingleThreadExecutor(DAEMON_THREAD_FACTORY);
+        }
+        return mIoExecutor;
+    }
+
+    private static synchronized Handler getMainHandler() {
+        if (sMainHandler == null) {
+            sMainHandler = new Handler(Looper.getMainLooper());
+        }
+        return sMainHandler;
     }
 
     /**
@@ -499,7 +1141,8 @@ public class CacheUtils {
      * @return value 缓存的文件
      */
     public File file(String key) {
-        File f = mCacheManager.newFile(key);
+        flush();
+        File f = mCacheManager.get(key);
         if (f.exists())
             return f;
         return null;
@@ -512,6 +1155,10 @@ public class CacheUtils {
      * @return 是否移除成功
      */
     public boolean remove(String key) {
+        MemoryCache memoryCache = mMemoryCache;
+        if (memoryCache != null) {
+            memoryCache.remove(key);
+        }
         return mCacheManager.remove(key);
     }
 
@@ -519,130 +1166,758 @@ public class CacheUtils {
      * 清除所有数据
      */
     public void clear() {
+        MemoryCache memoryCache = mMemoryCache;
+        if (memoryCache != null) {
+            memoryCache.clear();
+        }
         mCacheManager.clear();
     }
 
     /**
-     * @author 杨福海（michael） www.yangfuhai.com
-     * @version 1.0
-     * @title 时间计算工具类
+     * 序列化方式
+     * <p>常用实现见{@link Serializers}。</p>
+     */
+    public interface Serializer<T> {
+        byte[] serialize(T value) throws IOException;
+
+        T deserialize(byte[] data) throws IOException;
+    }
+
+    /**
+     * 常用的序列化方式
+     */
+    public static final class Serializers {
+        private static final Serializer<byte[]> BYTES = new Serializer<byte[]>() {
+            @Override
+            public byte[] serialize(byte[] value) {
+                return value;
+            }
+
+            @Override
+            public byte[] deserialize(byte[] data) {
+                return data;
+            }
+        };
+        private static final Serializer<String> STRING = new Serializer<String>() {
+            @Override
+            public byte[] serialize(String value) {
+                return value.getBytes(CHARSET);
+            }
+
+            @Override
+            public String deserialize(byte[] data) {
+                return new String(data, CHARSET);
+            }
+        };
+        private static final Serializer<Object> SERIALIZABLE = new Serializer<Object>() {
+            @Override
+            public byte[] serialize(Object value) throws IOException {
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                ObjectOutputStream oos = new ObjectOutputStream(baos);
+                try {
+                    oos.writeObject(value);
+                } finally {
+                    CloseUtils.closeIO(oos);
+                }
+                return baos.toByteArray();
+            }
+
+            @Override
+            public Object deserialize(byte[] data) throws IOException {
+                ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data));
+                try {
+                    return ois.readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new IOException(e.toString());
+                } finally {
+                    CloseUtils.closeIO(ois);
+                }
+            }
+        };
+        private static final Serializer<JSONObject> JSON_OBJECT = new Serializer<JSONObject>() {
+            @Override
+            public byte[] serialize(JSONObject value) {
+                return value.toString().getBytes(CHARSET);
+            }
+
+            @Override
+            public JSONObject deserialize(byte[] data) throws IOException {
+                try {
+                    return new JSONObject(new String(data, CHARSET));
+                } catch (JSONException e) {
+                    throw new IOException(e.toString());
+                }
+            }
+        };
+        private static final Serializer<JSONArray> JSON_ARRAY = new Serializer<JSONArray>() {
+            @Override
+            public byte[] serialize(JSONArray value) {
+                return value.toString().getBytes(CHARSET);
+            }
+
+            @Override
+            public JSONArray deserialize(byte[] data) throws IOException {
+                try {
+                    return new JSONArray(new String(data, CHARSET));
+                } catch (JSONException e) {
+                    throw new IOException(e.toString());
+                }
+            }
+        };
+
+        private Serializers() {
+            throw new UnsupportedOperationException("u can't instantiate me...");
+        }
+
+        /**
+         * 原样保存byte数组
+         */
+        public static Serializer<byte[]> bytes() {
+            return BYTES;
+        }
+
+        /**
+         * UTF-8编码的字符串
+         */
+        public static Serializer<String> string() {
+            return STRING;
+        }
+
+        /**
+         * Java序列化，数据需实现{@link Serializable}
+         */
+        public static Serializer<Object> serializable() {
+            return SERIALIZABLE;
+        }
+
+        /**
+         * JSONObject，以JSON文本保存
+         */
+        public static Serializer<JSONObject> jsonObject() {
+            return JSON_OBJECT;
+        }
+
+        /**
+         * JSONArray，以JSON文本保存
+         */
+        public static Serializer<JSONArray> jsonArray() {
+            return JSON_ARRAY;
+        }
+
+        /**
+         * 按指定格式和质量压缩的bitmap
+         *
+         * @param format  压缩格式，JPEG和WEBP为有损格式，体积远小于PNG
+         * @param quality 压缩质量 0-100，PNG忽略该参数
+         */
+        public static Serializer<Bitmap> bitmap(final Bitmap.CompressFormat format, final int quality) {
+            return new Serializer<Bitmap>() {
+                @Override
+                public byte[] serialize(Bitmap value) {
+                    return Utils.Bitmap2Bytes(value, format, quality);
+                }
+
+                @Override
+                public Bitmap deserialize(byte[] data) {
+                    return Utils.Bytes2Bimap(data);
+                }
+            };
+        }
+    }
+
+    /**
+     * 紧凑二进制序列化
+     * <p>由子类按固定顺序逐个字段读写，没有Java序列化的类描述信息，体积小、速度快。</p>
+     * <pre>
+     * new CompactSerializer&lt;User&gt;() {
+     *     protected void write(User value, DataOutput out) throws IOException {
+     *         out.writeLong(value.id);
+     *         out.writeUTF(value.name);
+     *     }
+     *
+     *     protected User read(DataInput in) throws IOException {
+     *         return new User(in.readLong(), in.readUTF());
+     *     }
+     * }
+     * </pre>
+     */
+    public static abstract class CompactSerializer<T> implements Serializer<T> {
+
+        protected abstract void write(T value, DataOutput out) throws IOException;
+
+        protected abstract T read(DataInput in) throws IOException;
+
+        @Override
+        public byte[] serialize(T value) throws IOException {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(baos);
+            write(value, out);
+            out.flush();
+            return baos.toByteArray();
+        }
+
+        @Override
+        public T deserialize(byte[] data) throws IOException {
+            return read(new DataInputStream(new ByteArrayInputStream(data)));
+        }
+    }
+
+    /**
+     * 异步读写结果回调，在主线程执行
+     */
+    public interface Callback<T> {
+        void onResult(T result);
+    }
+
+    @IntDef({WRITE_THROUGH, WRITE_BACK})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface WritePolicy {
+    }
+
+    @IntDef({COMPRESS_NONE, COMPRESS_AUTO})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface CompressMode {
+    }
+
+    /**
+     * 缓存命中统计
+     */
+    public static final class CacheStats {
+        private final long memoryHitCount;
+        private final long memoryMissCount;
+        private final long diskHitCount;
+        private final long diskMissCount;
+
+        private CacheStats(long memoryHitCount, long memoryMissCount, long diskHitCount, long diskMissCount) {
+            this.memoryHitCount = memoryHitCount;
+            this.memoryMissCount = memoryMissCount;
+            this.diskHitCount = diskHitCount;
+            this.diskMissCount = diskMissCount;
+        }
+
+        public long getMemoryHitCount() {
+            return memoryHitCount;
+        }
+
+        public long getMemoryMissCount() {
+            return memoryMissCount;
+        }
+
+        public long getDiskHitCount() {
+            return diskHitCount;
+        }
+
+        public long getDiskMissCount() {
+            return diskMissCount;
+        }
+
+        @Override
+        public String toString() {
+            return "memory hit: " + memoryHitCount + ", memory miss: " + memoryMissCount
+                    + ", disk hit: " + diskHitCount + ", disk miss: " + diskMissCount;
+        }
+    }
+
+    /**
+     * 缓存条目
+     */
+    private static final class CacheEntry {
+        private final Object value; // String 或 byte[]
+        private final long writeTime;
+        private final int saveTime;
+        private final int compressMode;
+
+        private CacheEntry(Object value, long writeTime, int saveTime) {
+            this(value, writeTime, saveTime, COMPRESS_DEFAULT);
+        }
+
+        private CacheEntry(Object value, long writeTime, int saveTime, int compressMode) {
+            this.value = value;
+            this.writeTime = writeTime;
+            this.saveTime = saveTime;
+            this.compressMode = compressMode;
+        }
+
+        /**
+         * 判断缓存条目是否到期
+         *
+         * @return true：到期了 false：还没有到期
+         */
+        private boolean isDue() {
+            return EntryHeader.isDue(writeTime, saveTime);
+        }
+
+        private String asString() {
+            return value instanceof String ? (String) value : new String((byte[]) value, CHARSET);
+        }
+
+        private byte[] asBytes() {
+            return value instanceof byte[] ? (byte[]) value : ((String) value).getBytes(CHARSET);
+        }
+
+        /**
+         * 返回数据的副本，内存缓存中的数组不暴露给调用方
+         */
+        private byte[] copyBytes() {
+            return value instanceof byte[] ? ((byte[]) value).clone() : ((String) value).getBytes(CHARSET);
+        }
+
+        private int weight() {
+            return value instanceof byte[] ? ((byte[]) value).length : ((String) value).length() * 2;
+        }
+    }
+
+    /**
+     * 缓存文件头
+     * <p>固定32字节，大端序，其后紧跟UTF-8编码的key用于校验，再之后是数据：</p>
+     * <pre>
+     *  0  int   魔数 "HDBC"
+     *  4  byte  版本号
+     *  5  byte  标志位
+     *  6  short key长度
+     *  8  long  写入时间，单位：毫秒
+     * 16  int   保存时间，单位：秒，-1表示永不过期
+     * 20  int   数据长度
+     * 24  int   数据的CRC32校验值
+     * 28  int   压缩前的数据长度，未压缩时为-1
+     * </pre>
+     * <p>标志位 {@code FLAG_DEFLATE} 表示数据经过deflate压缩，此时数据长度和校验值均针对压缩后的数据。</p>
+     * <p>兼容旧版本 {@code "<13位毫秒时间>-<秒数> "} 形式的文本前缀及不带时间信息的文件，
+     * 其他版本号的文件头无法读取，按损坏数据处理。</p>
+     */
+    private static final class EntryHeader {
+        private static final int MAGIC = 0x48444243;
+        private static final byte VERSION = 3;
+        private static final int SIZE = 32;
+        private static final int READ_SIZE = 256; // 一次读取的大小，可同时读取头部和大多数key
+        private static final int MAX_KEY_LENGTH = 0xFFFF;
+        private static final int FLAG_KEY = 0x01;
+        private static final int FLAG_DEFLATE = 0x02;
+        private static final char LEGACY_SEPARATOR = ' ';
+        private static final ThreadLocal<byte[]> BUFFER = new ThreadLocal<byte[]>() {
+            @Override
+            protected byte[] initialValue() {
+                return new byte[READ_SIZE];
+            }
+        };
+
+        private boolean legacy;
+        private boolean unsupported; // 不支持的版本号
+        private boolean keyMismatch;
+        private int flags;
+        private long writeTime;
+        private int saveTime = NO_SAVE_TIME;
+        private long payloadOffset;
+        private int payloadLength;
+        private int rawLength = -1;
+        private int checksum;
+
+        /**
+         * 生成文件头和key
+         *
+         * @param payload   写入文件的数据
+         * @param rawLength 压缩前的数据长度，未压缩时为-1
+         * @return 文件头和key，key过长时不保存key
+         */
+        private static ByteBuffer encode(long writeTime, int saveTime, byte[] key, byte[] payload, int rawLength) {
+            if (key.length > MAX_KEY_LENGTH) {
+                key = new byte[0];
+            }
+            CRC32 crc32 = new CRC32();
+            crc32.update(payload);
+            ByteBuffer header = ByteBuffer.allocate(SIZE + key.length);
+            header.putInt(MAGIC)
+                    .put(VERSION)
+                    .put((byte) ((key.length > 0 ? FLAG_KEY : 0) | (rawLength >= 0 ? FLAG_DEFLATE : 0)))
+                    .putShort((short) key.length)
+                    .putLong(writeTime)
+                    .putInt(saveTime)
+                    .putInt(payload.length)
+                    .putInt((int) crc32.getValue())
+                    .putInt(rawLength)
+                    .put(key);
+            header.flip();
+            return header;
+        }
+
+        private static EntryHeader read(RandomAccessFile file) throws IOException {
+            return read(file, null);
+        }
+
+        /**
+         * 从文件开头读取头部，头部和较短的key通过一次读取完成
+         *
+         * @param key 需要校验的key，为null时不校验
+         */
+        private static EntryHeader read(RandomAccessFile file, String key) throws IOException {
+            long length = file.length();
+            int count = (int) Math.min(READ_SIZE, length);
+            byte[] buffer = BUFFER.get();
+            file.seek(0);
+            file.readFully(buffer, 0, count);
+            EntryHeader header = new EntryHeader();
+            if (count >= SIZE && readInt(buffer, 0) == MAGIC) {
+                if (buffer[4] != VERSION) {
+                    header.unsupported = true;
+                    return header;
+                }
+                header.flags = buffer[5];
+                int keyLength = (header.flags & FLAG_KEY) != 0 ? readShort(buffer, 6) : 0;
+                header.writeTime = readLong(buffer, 8);
+                header.saveTime = readInt(buffer, 16);
+                header.payloadLength = readInt(buffer, 20);
+                header.checksum = readInt(buffer, 24);
+                if (header.isDeflated()) header.rawLength = readInt(buffer, 28);
+                header.payloadOffset = SIZE + keyLength;
+                if (key != null && keyLength > 0) {
+                    header.keyMismatch = !header.matchKey(file, buffer, count, keyLength, key);
+                }
+            } else {
+                header.readLegacy(buffer, count, length);
+            }
+            return header;
+        }
+
+        private boolean matchKey(RandomAccessFile file, byte[] buffer, int count, int keyLength, String key) throws IOException {
+            byte[] expected = key.getBytes(CHARSET);
+            if (expected.length != keyLength) return false;
+            byte[] stored = buffer;
+            int offset = SIZE;
+            if (SIZE + keyLength > count) {
+                stored = new byte[keyLength];
+                offset = 0;
+                file.seek(SIZE);
+                file.readFully(stored);
+            }
+            for (int i = 0; i < keyLength; i++) {
+                if (stored[offset + i] != expected[i]) return false;
+            }
+            return true;
+        }
+
+        /**
+         * 解析旧版本的文本时间前缀，没有前缀时整个文件都是数据
+         */
+        private void readLegacy(byte[] buffer, int count, long length) {
+            legacy = true;
+            payloadOffset = 0;
+            int separator = -1;
+            if (length > 15 && buffer[13] == '-') {
+                for (int i = 14; i < count; i++) {
+                    if (buffer[i] == LEGACY_SEPARATOR) {
+                        separator = i;
+                        break;
+                    }
+                }
+            }
+            if (separator > 14) {
+                try {
+                    writeTime = Long.parseLong(new String(buffer, 0, 13, CHARSET));
+                    saveTime = Integer.parseInt(new String(buffer, 14, separator - 14, CHARSET));
+                    payloadOffset = separator + 1;
+                } catch (NumberFormatException e) {
+                    writeTime = 0;
+                    saveTime = NO_SAVE_TIME;
+                }
+            }
+            payloadLength = (int) (length - payloadOffset);
+        }
+
+        private boolean isDeflated() {
+            return (flags & FLAG_DEFLATE) != 0;
+        }
+
+        /**
+         * 读取数据部分，压缩的数据会被解压
+         *
+         * @param dictionary 压缩时使用的预置字典
+         * @return 数据，校验或解压失败时返回null
+         */
+        private byte[] readPayload(RandomAccessFile file, byte[] dictionary) throws IOException {
+            if (payloadOffset + payloadLength > file.length()) {
+                return null;
+            }
+            byte[] payload = new byte[payloadLength];
+            file.seek(payloadOffset);
+            file.readFully(payload);
+            if (!legacy) {
+                CRC32 crc32 = new CRC32();
+                crc32.update(payload);
+                if ((int) crc32.getValue() != checksum) {
+                    return null;
+                }
+                if (isDeflated()) {
+                    return Deflate.decompress(payload, rawLength, dictionary);
+                }
+            }
+            return payload;
+        }
+
+        private boolean isDue() {
+            return isDue(writeTime, saveTime);
+        }
+
+        private long dueTime() {
+            return dueTime(writeTime, saveTime);
+        }
+
+        private static boolean isDue(long writeTime, int saveTime) {
+            return System.currentTimeMillis() > dueTime(writeTime, saveTime);
+        }
+
+        private static long dueTime(long writeTime, int saveTime) {
+            return saveTime == NO_SAVE_TIME ? NO_DUE_TIME : writeTime + saveTime * 1000L;
+        }
+
+        /**
+         * 读取缓存文件的过期时间
+         *
+         * @return 过期时间，文件无法读取时返回{@link #NO_DUE_TIME}
+         */
+        private static long readDueTime(File file) {
+            RandomAccessFile RAFile = null;
+            try {
+                RAFile = new RandomAccessFile(file, "r");
+                EntryHeader header = read(RAFile);
+                return header.unsupported ? NO_DUE_TIME : header.dueTime();
+            } catch (IOException e) {
+                return NO_DUE_TIME;
+            } finally {
+                CloseUtils.closeIOQuietly(RAFile);
+            }
+        }
+
+        private static int readInt(byte[] buffer, int offset) {
+            return (buffer[offset] & 0xFF) << 24
+                    | (buffer[offset + 1] & 0xFF) << 16
+                    | (buffer[offset + 2] & 0xFF) << 8
+                    | (buffer[offset + 3] & 0xFF);
+        }
+
+        private static int readShort(byte[] buffer, int offset) {
+            return (buffer[offset] & 0xFF) << 8 | (buffer[offset + 1] & 0xFF);
+        }
+
+        private static long readLong(byte[] buffer, int offset) {
+            return (readInt(buffer, offset) & 0xFFFFFFFFL) << 32 | (readInt(buffer, offset + 4) & 0xFFFFFFFFL);
+        }
+    }
+
+    /**
+     * deflate压缩
      */
-    private static class Utils {
-
-        private static final char mSeparator = ' ';
+    private static final class Deflate {
 
         /**
-         * 判断缓存的String数据是否到期
+         * 压缩数据
          *
-         * @param str
-         * @return true：到期了 false：还没有到期
+         * @return 压缩后的数据，已压缩、过小或压缩后没有明显减小的数据返回null
          */
-        private static boolean isDue(String str) {
-            return isDue(str.getBytes());
+        private static byte[] compress(byte[] data, byte[] dictionary) {
+            if (data.length < MIN_COMPRESS_SIZE || isCompressed(data)) {
+                return null;
+            }
+            // 至少节省1/8的空间才值得解压的开销
+            int limit = data.length - (data.length >> 3);
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+            try {
+                if (dictionary != null) {
+                    deflater.setDictionary(dictionary);
+                }
+                deflater.setInput(data);
+                deflater.finish();
+                byte[] buffer = new byte[limit];
+                int length = 0;
+                while (!deflater.finished() && length < limit) {
+                    length += deflater.deflate(buffer, length, limit - length);
+                }
+                if (!deflater.finished()) {
+                    return null;
+                }
+                byte[] compressed = new byte[length];
+                System.arraycopy(buffer, 0, compressed, 0, length);
+                return compressed;
+            } finally {
+                deflater.end();
+            }
         }
 
         /**
-         * 判断缓存的byte数据是否到期
+         * 解压数据
          *
-         * @param data
-         * @return true：到期了 false：还没有到期
+         * @return 解压后的数据，字典不匹配或数据损坏时返回null
          */
-        private static boolean isDue(byte[] data) {
-            String[] strs = getDateInfoFromDate(data);
-            if (strs != null && strs.length == 2) {
-                String saveTimeStr = strs[0];
-                while (saveTimeStr.startsWith("0")) {
-                    saveTimeStr = saveTimeStr
-                            .substring(1, saveTimeStr.length());
-                }
-                long saveTime = Long.valueOf(saveTimeStr);
-                long deleteAfter = Long.valueOf(strs[1]);
-                if (System.currentTimeMillis() > saveTime + deleteAfter * 1000) {
-                    return true;
+        private static byte[] decompress(byte[] data, int rawLength, byte[] dictionary) {
+            if (rawLength < 0) {
+                return null;
+            }
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(data);
+                byte[] raw = new byte[rawLength];
+                int length = 0;
+                while (!inflater.finished()) {
+                    int count = inflater.inflate(raw, length, rawLength - length);
+                    length += count;
+                    if (count == 0) {
+                        if (inflater.needsDictionary()) {
+                            if (dictionary == null) return null;
+                            inflater.setDictionary(dictionary);
+                        } else if (inflater.needsInput() || length == rawLength) {
+                            break;
+                        }
+                    }
                 }
+                return inflater.finished() && length == rawLength ? raw : null;
+            } catch (DataFormatException | IllegalArgumentException e) {
+                // 数据损坏或字典不匹配
+                return null;
+            } finally {
+                inflater.end();
             }
-            return false;
         }
 
-        private static String newStringWithDateInfo(int second, String strInfo) {
-            return createDateInfo(second) + strInfo;
+        /**
+         * 根据文件头的魔数判断是否为已压缩的格式
+         */
+        private static boolean isCompressed(byte[] data) {
+            int b0 = data[0] & 0xFF, b1 = data[1] & 0xFF, b2 = data[2] & 0xFF, b3 = data[3] & 0xFF;
+            return (b0 == 0x89 && b1 == 'P' && b2 == 'N' && b3 == 'G')                   // PNG
+                    || (b0 == 0xFF && b1 == 0xD8 && b2 == 0xFF)                           // JPEG
+                    || (b0 == 'G' && b1 == 'I' && b2 == 'F' && b3 == '8')                 // GIF
+                    || (b0 == 'R' && b1 == 'I' && b2 == 'F' && b3 == 'F'
+                    && data.length > 11 && data[8] == 'W' && data[9] == 'E' && data[10] == 'B' && data[11] == 'P') // WEBP
+                    || (b0 == 'P' && b1 == 'K' && b2 == 0x03 && b3 == 0x04)               // zip
+                    || (b0 == 0x1F && b1 == 0x8B);                                        // gzip
         }
+    }
 
-        private static byte[] newByteArrayWithDateInfo(int second, byte[] data2) {
-            byte[] data1 = createDateInfo(second).getBytes();
-            byte[] retdata = new byte[data1.length + data2.length];
-            System.arraycopy(data1, 0, retdata, 0, data1.length);
-            System.arraycopy(data2, 0, retdata, data1.length, data2.length);
-            return retdata;
+    /**
+     * 内存缓存层
+     * <p>缓存的是解码后的缓存条目，按字节数计算容量。
+     * {@link #WRITE_BACK} 策略下待写入的数据单独保存在 dirtyEntries 中，
+     * 即使被LRU淘汰也不会丢失，由单线程按写入顺序合并写入磁盘。
+     * 写入磁盘与移除、清空持有同一个对象锁，已移除的数据不会再被写回磁盘。</p>
+     */
+    private class MemoryCache {
+        private final LruCache<String, CacheEntry> lruCache;
+        private final int writePolicy;
+        private final ConcurrentHashMap<String, CacheEntry> dirtyEntries = new ConcurrentHashMap<>();
+        private final AtomicBoolean writeScheduled = new AtomicBoolean();
+        private final AtomicLong hitCount = new AtomicLong();
+        private final AtomicLong missCount = new AtomicLong();
+        private final Object executorLock = new Object();
+        private ExecutorService writeExecutor;
+        private boolean shutdown;
+
+        private MemoryCache(int maxBytes, int writePolicy) {
+            this.writePolicy = writePolicy;
+            this.lruCache = new LruCache<String, CacheEntry>(maxBytes) {
+                @Override
+                protected int sizeOf(String key, CacheEntry value) {
+                    return value.weight();
+                }
+            };
         }
 
-        private static String clearDateInfo(String strInfo) {
-            if (strInfo != null && hasDateInfo(strInfo.getBytes())) {
-                strInfo = strInfo.substring(strInfo.indexOf(mSeparator) + 1,
-                        strInfo.length());
+        private CacheEntry get(String key) {
+            CacheEntry value = lruCache.get(key);
+            if (value == null) {
+                value = dirtyEntries.get(key);
+            }
+            if (value != null) {
+                hitCount.incrementAndGet();
+            } else {
+                missCount.incrementAndGet();
             }
-            return strInfo;
+            return value;
         }
 
-        private static byte[] clearDateInfo(byte[] data) {
-            if (hasDateInfo(data)) {
-                return copyOfRange(data, indexOf(data, mSeparator) + 1,
-                        data.length);
-            }
-            return data;
+        private void put(String key, CacheEntry value) {
+            lruCache.put(key, value);
         }
 
-        private static boolean hasDateInfo(byte[] data) {
-            return data != null && data.length > 15 && data[13] == '-'
-                    && indexOf(data, mSeparator) > 14;
+        private synchronized void remove(String key) {
+            lruCache.remove(key);
+            dirtyEntries.remove(key);
         }
 
-        private static String[] getDateInfoFromDate(byte[] data) {
-            if (hasDateInfo(data)) {
-                String saveDate = new String(copyOfRange(data, 0, 13));
-                String deleteAfter = new String(copyOfRange(data, 14,
-                        indexOf(data, mSeparator)));
-                return new String[]{saveDate, deleteAfter};
-            }
-            return null;
+        private synchronized void clear() {
+            lruCache.evictAll();
+            dirtyEntries.clear();
         }
 
-        private static int indexOf(byte[] data, char c) {
-            for (int i = 0; i < data.length; i++) {
-                if (data[i] == c) {
-                    return i;
+        private void markDirty(String key, CacheEntry value) {
+            dirtyEntries.put(key, value);
+            if (writeScheduled.compareAndSet(false, true)) {
+                synchronized (executorLock) {
+                    if (!shutdown) {
+                        if (writeExecutor == null) {
+                            writeExecutor = Executors.newSingleThreadExecutor(DAEMON_THREAD_FACTORY);
+                        }
+                        writeExecutor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                writeScheduled.set(false);
+                                writeDirtyEntries();
+                            }
+                        });
+                        return;
+                    }
                 }
+                // 已关闭的内存缓存层直接同步写入
+                writeScheduled.set(false);
+                writeDirtyEntries();
             }
-            return -1;
         }
 
-        private static byte[] copyOfRange(byte[] original, int from, int to) {
-            int newLength = to - from;
-            if (newLength < 0)
-                throw new IllegalArgumentException(from + " > " + to);
-            byte[] copy = new byte[newLength];
-            System.arraycopy(original, from, copy, 0,
-                    Math.min(original.length - from, newLength));
-            return copy;
+        /**
+         * 停止写入线程，并将未写入磁盘的数据写入磁盘
+         */
+        private void shutdown() {
+            synchronized (executorLock) {
+                shutdown = true;
+                if (writeExecutor != null) {
+                    writeExecutor.shutdown();
+                }
+            }
+            flush();
         }
 
-        private static String createDateInfo(int second) {
-            String currentTime = System.currentTimeMillis() + "";
-            while (currentTime.length() < 13) {
-                currentTime = "0" + currentTime;
+        /**
+         * 将待写入的数据写入磁盘，写入期间被覆盖的数据保留到下一轮
+         * <p>持有对象锁写入，写入期间的移除会等待写入完成后再删除磁盘文件。</p>
+         */
+        private synchronized void writeDirtyEntries() {
+            if (dirtyEntries.isEmpty()) return;
+            Map<String, CacheEntry> snapshot = new LinkedHashMap<>(dirtyEntries);
+            writeEntries(snapshot);
+            for (Map.Entry<String, CacheEntry> entry : snapshot.entrySet()) {
+                dirtyEntries.remove(entry.getKey(), entry.getValue());
             }
-            return currentTime + "-" + second + mSeparator;
         }
 
+        private void flush() {
+            writeDirtyEntries();
+        }
+    }
+
+    /**
+     * @author 杨福海（michael） www.yangfuhai.com
+     * @version 1.0
+     * @title 格式转换工具类
+     */
+    private static class Utils {
+
         /*
          * Bitmap → byte[]
          */
-        private static byte[] Bitmap2Bytes(Bitmap bm) {
+        private static byte[] Bitmap2Bytes(Bitmap bm, Bitmap.CompressFormat format, int quality) {
             if (bm == null) {
                 return null;
             }
             ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            bm.compress(Bitmap.CompressFormat.PNG, 100, baos);
+            bm.compress(format, quality, baos);
             return baos.toByteArray();
         }
 
@@ -691,133 +1966,712 @@ public class CacheUtils {
         }
     }
 
+    /**
+     * 缓存空间管理
+     * <p>使用按访问顺序排列的内存索引记录每个缓存文件的大小，配合追加写入的journal日志持久化LRU顺序，
+     * 淘汰、查找、写入均为O(1)；重启时回放journal即可恢复索引，无需遍历缓存目录。</p>
+     * <p>带保存时间的文件另外记录在按过期时间排序的索引中，供过期清理使用。</p>
+     * <p>缓存文件以key的SHA-1摘要命名，按摘要前缀分两级子目录存放（16 x 256），
+     * 索引和journal中记录的是相对缓存目录的路径。旧版本以{@code key.hashCode()}命名、
+     * 直接存放在缓存目录下的文件在首次按key访问时迁移到新位置。</p>
+     * <p>文件读写由按文件名分段的读写锁保护。加锁顺序固定为先文件锁、后索引锁（CacheManager对象锁），
+     * 持有索引锁时只会尝试获取文件锁（tryLock），不会等待。</p>
+     * <p>索引在后台线程加载，加载期间的读写直接访问缓存文件，不等待加载完成：写入和删除的文件名先记录下来，
+     * 加载完成后按磁盘上的实际状态更新索引。只有{@link #clear()}和过期清理会等待加载完成。</p>
+     * <p>缓存文件重命名到位前先写入DIRTY记录，进程在写入CLEAN记录前退出时，回放journal会按磁盘上的文件恢复该条目。</p>
+     */
     public class CacheManager {
-        private final AtomicLong cacheSize;
-        private final AtomicInteger cacheCount;
+        private static final String JOURNAL_FILE = "journal";
+        private static final String JOURNAL_FILE_TEMP = "journal.tmp";
+        private static final String JOURNAL_MAGIC = "com.handy.base.utils.CacheUtils";
+        private static final String JOURNAL_VERSION = "3";
+        private static final String DIRTY = "DIRTY";
+        private static final String CLEAN = "CLEAN";
+        private static final String READ = "READ";
+        private static final String REMOVE = "REMOVE";
+        private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000; // 冗余记录超过该值时压缩journal
+
         private final long sizeLimit;
         private final int countLimit;
-        private final Map<File, Long> lastUsageDates = Collections
-                .synchronizedMap(new HashMap<File, Long>());
+        // 文件名 -> 文件大小，按访问顺序排列，头部即最久未使用的文件
+        private final LinkedHashMap<String, Long> lruEntries = new LinkedHashMap<>(0, 0.75f, true);
+        // 文件名 -> 过期时间，以及按过期时间排序的文件名，只包含带保存时间的文件
+        private final HashMap<String, Long> dueTimes = new HashMap<>();
+        private final TreeMap<Long, Set<String>> expiryIndex = new TreeMap<>();
+        private final CountDownLatch initLatch = new CountDownLatch(1);
+        private volatile boolean initialized; // 索引是否已加载完成
+        private final Object pendingLock = new Object();
+        // 索引加载期间写入或删除的文件名 -> 过期时间，加载完成后与磁盘对账
+        private final Map<String, Long> pendingEntries = new LinkedHashMap<>();
+        // 已写入DIRTY记录、尚未写入CLEAN记录的文件名
+        private final Set<String> dirtyNames = new HashSet<>();
+        private final ReentrantReadWriteLock[] fileLocks = new ReentrantReadWriteLock[LOCK_STRIPES];
+        private final File journalFile;
+        private final File journalFileTemp;
         protected File cacheDir;
+        private long cacheSize;
+        private int legacyCount; // 尚未迁移的旧版本文件数
+        private Writer journalWriter;
+        private int redundantOpCount;
 
         private CacheManager(File cacheDir, long sizeLimit, int countLimit) {
             this.cacheDir = cacheDir;
             this.sizeLimit = sizeLimit;
             this.countLimit = countLimit;
-            cacheSize = new AtomicLong();
-            cacheCount = new AtomicInteger();
-            calculateCacheSizeAndCacheCount();
+            this.journalFile = new File(cacheDir, JOURNAL_FILE);
+            this.journalFileTemp = new File(cacheDir, JOURNAL_FILE_TEMP);
+            for (int i = 0; i < fileLocks.length; i++) {
+                fileLocks[i] = new ReentrantReadWriteLock();
+            }
+            initialize();
         }
 
         /**
-         * 计算 cacheSize和cacheCount
+         * 获取缓存文件对应的读写锁
          */
-        private void calculateCacheSizeAndCacheCount() {
+        private ReadWriteLock lockFor(File file) {
+            return fileLocks[(file.getName().hashCode() & 0x7FFFFFFF) % fileLocks.length];
+        }
+
+        /**
+         * 在后台线程中回放journal恢复索引，journal不存在或已损坏时退化为扫描缓存目录并重建journal
+         */
+        private void initialize() {
             new Thread(new Runnable() {
                 @Override
                 public void run() {
-                    int size = 0;
-                    int count = 0;
-                    File[] cachedFiles = cacheDir.listFiles();
-                    if (cachedFiles != null) {
-                        for (File cachedFile : cachedFiles) {
-                            size += calculateSize(cachedFile);
-                            count += 1;
-                            lastUsageDates.put(cachedFile,
-                                    cachedFile.lastModified());
+                    synchronized (CacheManager.this) {
+                        try {
+                            if (!readJournal()) {
+                                calculateCacheSizeAndCacheCount();
+                                rebuildJournal();
+                            }
+                            openJournalWriter();
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        } finally {
+                            synchronized (pendingLock) {
+                                applyPendingEntries();
+                                initialized = true;
+                            }
+                            trimToSize();
+                            initLatch.countDown();
                         }
-                        cacheSize.set(size);
-                        cacheCount.set(count);
                     }
                 }
             }).start();
         }
 
-        private void put(File file) {
-            int curCacheCount = cacheCount.get();
-            while (curCacheCount + 1 > countLimit) {
-                long freedSize = removeNext();
-                cacheSize.addAndGet(-freedSize);
+        /**
+         * 索引加载完成前记录写入或删除的文件名，加载完成后由初始化线程更新索引
+         *
+         * @return {@code true}: 已记录<br>{@code false}: 索引已加载完成，调用方直接更新索引
+         */
+        private boolean deferUntilInitialized(String name, long dueTime) {
+            if (initialized) return false;
+            synchronized (pendingLock) {
+                if (initialized) return false;
+                pendingEntries.put(name, dueTime);
+                return true;
+            }
+        }
+
+        /**
+         * 按磁盘上的实际状态更新加载期间写入或删除的文件，调用方持有索引锁
+         */
+        private void applyPendingEntries() {
+            for (Map.Entry<String, Long> entry : pendingEntries.entrySet()) {
+                String name = entry.getKey();
+                File file = new File(cacheDir, name);
+                if (!file.exists()) {
+                    removeEntry(name, false);
+                    continue;
+                }
+                long size = calculateSize(file);
+                Long oldSize = lruEntries.put(name, size);
+                if (oldSize != null) {
+                    cacheSize -= oldSize;
+                } else if (isLegacyName(name)) {
+                    legacyCount++;
+                }
+                cacheSize += size;
+                setDueTime(name, entry.getValue());
+                appendJournal(cleanLine(name, size), false);
+            }
+            pendingEntries.clear();
+            flushJournal();
+        }
+
+        private void awaitInitialized() {
+            try {
+                initLatch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * 回放journal
+         *
+         * @return {@code true}: 回放成功<br>{@code false}: journal不存在或格式错误
+         */
+        private boolean readJournal() {
+            if (!journalFile.exists()) return false;
+            BufferedReader reader = null;
+            try {
+                reader = new BufferedReader(new FileReader(journalFile), 8192);
+                if (!JOURNAL_MAGIC.equals(reader.readLine())
+                        || !JOURNAL_VERSION.equals(reader.readLine())) {
+                    return false;
+                }
+                int lineCount = 0;
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    readJournalLine(line);
+                    lineCount++;
+                }
+                boolean reconciled = !dirtyNames.isEmpty();
+                reconcileDirtyEntries();
+                redundantOpCount = lineCount - lruEntries.size();
+                cacheSize = 0;
+                legacyCount = 0;
+                for (Map.Entry<String, Long> entry : lruEntries.entrySet()) {
+                    cacheSize += entry.getValue();
+                    if (isLegacyName(entry.getKey())) legacyCount++;
+                }
+                if (reconciled) rebuildJournal();
+                return true;
+            } catch (IOException | RuntimeException e) {
+                // journal损坏时丢弃已回放的内容，交由目录扫描重建
+                e.printStackTrace();
+                lruEntries.clear();
+                dirtyNames.clear();
+                clearDueTimes();
+                return false;
+            } finally {
+                CloseUtils.closeIOQuietly(reader);
+            }
+        }
+
+        private void readJournalLine(String line) throws IOException {
+            String[] parts = line.split(" ");
+            if (CLEAN.equals(parts[0]) && (parts.length == 3 || parts.length == 4)) {
+                lruEntries.put(parts[1], Long.parseLong(parts[2]));
+                setDueTime(parts[1], parts.length == 4 ? Long.parseLong(parts[3]) : NO_DUE_TIME);
+                dirtyNames.remove(parts[1]);
+            } else if (DIRTY.equals(parts[0]) && parts.length == 2) {
+                dirtyNames.add(parts[1]);
+            } else if (READ.equals(parts[0]) && parts.length == 2) {
+                lruEntries.get(parts[1]);
+            } else if (REMOVE.equals(parts[0]) && parts.length == 2) {
+                lruEntries.remove(parts[1]);
+                clearDueTime(parts[1]);
+                dirtyNames.remove(parts[1]);
+            } else {
+                throw new IOException("unexpected journal line: " + line);
+            }
+        }
+
+        /**
+         * 按磁盘上的文件恢复只有DIRTY记录的条目：文件存在时重新读取大小和过期时间，否则从索引中移除
+         */
+        private void reconcileDirtyEntries() {
+            for (String name : dirtyNames) {
+                File file = new File(cacheDir, name);
+                deleteTempFile(new File(file.getPath() + TEMP_SUFFIX));
+                if (file.exists()) {
+                    lruEntries.put(name, calculateSize(file));
+                    setDueTime(name, EntryHeader.readDueTime(file));
+                } else {
+                    lruEntries.remove(name);
+                    clearDueTime(name);
+                }
+            }
+            dirtyNames.clear();
+        }
+
+        /**
+         * 计算 cacheSize和cacheCount，按文件最后修改时间确定初始的LRU顺序，并从文件头读取过期时间
+         */
+        private void calculateCacheSizeAndCacheCount() {
+            lruEntries.clear();
+            clearDueTimes();
+            cacheSize = 0;
+            legacyCount = 0;
+            List<File> files = listCacheFiles();
+            final Map<File, Long> lastModified = new HashMap<>(files.size());
+            for (File cachedFile : files) {
+                lastModified.put(cachedFile, cachedFile.lastModified());
+            }
+            Collections.sort(files, new Comparator<File>() {
+                @Override
+                public int compare(File lhs, File rhs) {
+                    long l = lastModified.get(lhs);
+                    long r = lastModified.get(rhs);
+                    return l < r ? -1 : (l == r ? 0 : 1);
+                }
+            });
+            for (File file : files) {
+                String name = nameOf(file);
+                long size = calculateSize(file);
+                lruEntries.put(name, size);
+                setDueTime(name, EntryHeader.readDueTime(file));
+                cacheSize += size;
+                if (isLegacyName(name)) legacyCount++;
+            }
+        }
+
+        /**
+         * 列出缓存目录下的所有缓存文件，包括两级子目录中的文件和旧版本直接存放的文件
+         */
+        private List<File> listCacheFiles() {
+            List<File> files = new ArrayList<>();
+            listCacheFiles(cacheDir, 0, files);
+            return files;
+        }
+
+        private void listCacheFiles(File dir, int depth, List<File> files) {
+            File[] children = dir.listFiles();
+            if (children == null) return;
+            for (File child : children) {
+                if (child.isDirectory()) {
+                    if (depth < 2) listCacheFiles(child, depth + 1, files);
+                } else if (isJournalFile(child)) {
+                    continue;
+                } else if (child.getName().endsWith(TEMP_SUFFIX)) {
+                    // 写入过程中进程退出遗留的临时文件，正在写入的临时文件由写入方持有文件锁
+                    if (depth > 0) deleteTempFile(child);
+                } else {
+                    files.add(child);
+                }
+            }
+        }
+
+        private void deleteTempFile(File tempFile) {
+            String path = tempFile.getPath();
+            Lock lock = lockFor(new File(path.substring(0, path.length() - TEMP_SUFFIX.length()))).writeLock();
+            if (!lock.tryLock()) return;
+            try {
+                tempFile.delete();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 按当前索引重写一份精简的journal，写入临时文件后再替换
+         */
+        private void rebuildJournal() throws IOException {
+            CloseUtils.closeIOQuietly(journalWriter);
+            Writer writer = new BufferedWriter(new FileWriter(journalFileTemp), 8192);
+            try {
+                writer.write(JOURNAL_MAGIC);
+                writer.write('\n');
+                writer.write(JOURNAL_VERSION);
+                writer.write('\n');
+                for (Map.Entry<String, Long> entry : lruEntries.entrySet()) {
+                    writer.write(cleanLine(entry.getKey(), entry.getValue()));
+                }
+                for (String name : dirtyNames) {
+                    writer.write(DIRTY + ' ' + name + '\n');
+                }
+            } finally {
+                writer.close();
+            }
+            if (!journalFileTemp.renameTo(journalFile)) {
+                throw new IOException("can't rename " + journalFileTemp.getAbsolutePath());
+            }
+            redundantOpCount = 0;
+            if (journalWriter != null) {
+                openJournalWriter();
+            }
+        }
+
+        private void openJournalWriter() throws IOException {
+            journalWriter = new BufferedWriter(new FileWriter(journalFile, true), 8192);
+        }
+
+        private String cleanLine(String name, long size) {
+            Long dueTime = dueTimes.get(name);
+            return dueTime == null
+                    ? CLEAN + ' ' + name + ' ' + size + '\n'
+                    : CLEAN + ' ' + name + ' ' + size + ' ' + dueTime + '\n';
+        }
+
+        /**
+         * 追加一条journal记录，读取记录不强制刷盘，丢失只会影响LRU顺序
+         */
+        private void appendJournal(String line, boolean flush) {
+            if (journalWriter == null) return;
+            try {
+                journalWriter.write(line);
+                if (flush) journalWriter.flush();
+                if (++redundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD
+                        && redundantOpCount >= lruEntries.size()) {
+                    rebuildJournal();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        private boolean isJournalFile(File file) {
+            String name = file.getName();
+            return JOURNAL_FILE.equals(name) || JOURNAL_FILE_TEMP.equals(name);
+        }
+
+        private void setDueTime(String name, long dueTime) {
+            clearDueTime(name);
+            if (dueTime == NO_DUE_TIME) return;
+            dueTimes.put(name, dueTime);
+            Set<String> names = expiryIndex.get(dueTime);
+            if (names == null) {
+                names = new HashSet<>();
+                expiryIndex.put(dueTime, names);
+            }
+            names.add(name);
+        }
+
+        private void clearDueTime(String name) {
+            Long dueTime = dueTimes.remove(name);
+            if (dueTime == null) return;
+            Set<String> names = expiryIndex.get(dueTime);
+            if (names != null && names.remove(name) && names.isEmpty()) {
+                expiryIndex.remove(dueTime);
+            }
+        }
+
+        private void clearDueTimes() {
+            dueTimes.clear();
+            expiryIndex.clear();
+        }
+
+        /**
+         * 缓存文件重命名到位前写入DIRTY记录并刷新journal，调用方持有文件写锁
+         * <p>索引加载期间不写入，加载期间的写入由加载完成后的对账处理。</p>
+         */
+        private void markDirty(File file) {
+            if (!initialized) return;
+            synchronized (this) {
+                String name = nameOf(file);
+                if (dirtyNames.add(name)) {
+                    appendJournal(DIRTY + ' ' + name + '\n', true);
+                }
+            }
+        }
 
-                curCacheCount = cacheCount.addAndGet(-1);
+        /**
+         * 写入失败时撤销DIRTY标记，磁盘上原有的文件保持不变
+         */
+        private void clearDirty(File file) {
+            if (!initialized) return;
+            synchronized (this) {
+                dirtyNames.remove(nameOf(file));
             }
-            cacheCount.addAndGet(1);
+        }
 
+        private void put(File file, long dueTime) {
+            if (deferUntilInitialized(nameOf(file), dueTime)) return;
             long valueSize = calculateSize(file);
-            long curCacheSize = cacheSize.get();
-            while (curCacheSize + valueSize > sizeLimit) {
-                long freedSize = removeNext();
-                curCacheSize = cacheSize.addAndGet(-freedSize);
+            synchronized (this) {
+                String name = nameOf(file);
+                Long oldSize = lruEntries.put(name, valueSize);
+                if (oldSize != null) {
+                    cacheSize -= oldSize;
+                }
+                cacheSize += valueSize;
+                setDueTime(name, dueTime);
+                dirtyNames.remove(name);
+                appendJournal(cleanLine(name, valueSize), true);
+                trimToSize();
             }
-            cacheSize.addAndGet(valueSize);
+        }
 
-            Long currentTime = System.currentTimeMillis();
-            file.setLastModified(currentTime);
-            lastUsageDates.put(file, currentTime);
+        /**
+         * 批量加入索引，只做一次淘汰和一次日志刷新
+         *
+         * @param files 文件和对应的过期时间
+         */
+        private void putAll(Map<File, Long> files) {
+            if (files.isEmpty()) return;
+            if (!initialized) {
+                Map<File, Long> remaining = new LinkedHashMap<>();
+                for (Map.Entry<File, Long> entry : files.entrySet()) {
+                    if (!deferUntilInitialized(nameOf(entry.getKey()), entry.getValue())) {
+                        remaining.put(entry.getKey(), entry.getValue());
+                    }
+                }
+                if (remaining.isEmpty()) return;
+                files = remaining;
+            }
+            Map<File, Long> sizes = new LinkedHashMap<>(files.size());
+            for (File file : files.keySet()) {
+                // 写完后已被其他线程删除的文件不再加入索引
+                if (file.exists()) sizes.put(file, calculateSize(file));
+            }
+            synchronized (this) {
+                for (File file : files.keySet()) {
+                    dirtyNames.remove(nameOf(file));
+                }
+                for (Map.Entry<File, Long> entry : sizes.entrySet()) {
+                    String name = nameOf(entry.getKey());
+                    long valueSize = entry.getValue();
+                    Long oldSize = lruEntries.put(name, valueSize);
+                    if (oldSize != null) {
+                        cacheSize -= oldSize;
+                    }
+                    cacheSize += valueSize;
+                    setDueTime(name, files.get(entry.getKey()));
+                    appendJournal(cleanLine(name, valueSize), false);
+                }
+                trimToSize();
+                flushJournal();
+            }
         }
 
         private File get(String key) {
-            File file = newFile(key);
-            Long currentTime = System.currentTimeMillis();
-            file.setLastModified(currentTime);
-            lastUsageDates.put(file, currentTime);
-
+            String name = entryName(key);
+            File file = new File(cacheDir, name);
+            if (!initialized) {
+                // 索引加载期间不迁移旧版本文件，直接读取
+                File legacyFile = new File(cacheDir, String.valueOf(key.hashCode()));
+                return !file.exists() && legacyFile.exists() ? legacyFile : file;
+            }
+            synchronized (this) {
+                if (lruEntries.get(name) != null) {
+                    appendJournal(READ + ' ' + name + '\n', false);
+                    return file;
+                }
+            }
+            migrateLegacyFile(key, file);
             return file;
         }
 
         private File newFile(String key) {
-            return new File(cacheDir, key.hashCode() + "");
+            return new File(cacheDir, entryName(key));
         }
 
-        private boolean remove(String key) {
-            File image = get(key);
-            return image.delete();
+        /**
+         * 根据key生成缓存文件相对缓存目录的路径，例如 {@code "a/b3/ab3f...e1"}
+         */
+        private String entryName(String key) {
+            String digest = digest(key);
+            return digest.substring(0, 1) + '/' + digest.substring(1, 3) + '/' + digest;
         }
 
-        private void clear() {
-            lastUsageDates.clear();
-            cacheSize.set(0);
-            File[] files = cacheDir.listFiles();
-            if (files != null) {
-                for (File f : files) {
-                    f.delete();
+        private String digest(String key) {
+            try {
+                byte[] bytes = MessageDigest.getInstance("SHA-1").digest(key.getBytes(CHARSET));
+                char[] hex = new char[bytes.length << 1];
+                for (int i = 0, j = 0; i < bytes.length; i++) {
+                    hex[j++] = HEX_DIGITS[bytes[i] >>> 4 & 0x0f];
+                    hex[j++] = HEX_DIGITS[bytes[i] & 0x0f];
+                }
+                return new String(hex);
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private String nameOf(File file) {
+            return file.getPath().substring(cacheDir.getPath().length() + 1).replace(File.separatorChar, '/');
+        }
+
+        private boolean isLegacyName(String name) {
+            return name.indexOf('/') < 0;
+        }
+
+        /**
+         * 将旧版本以{@code key.hashCode()}命名的文件迁移到新位置
+         */
+        private void migrateLegacyFile(String key, File file) {
+            String legacyName = String.valueOf(key.hashCode());
+            Lock lock = lockFor(file).writeLock();
+            lock.lock();
+            try {
+                migrateLegacyFileLocked(legacyName, file);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private synchronized void migrateLegacyFileLocked(String legacyName, File file) {
+            if (legacyCount == 0 || !lruEntries.containsKey(legacyName)) return;
+            File legacyFile = new File(cacheDir, legacyName);
+            File parent = file.getParentFile();
+            if ((!parent.exists() && !parent.mkdirs()) || !legacyFile.renameTo(file)) return;
+            Long dueTime = dueTimes.get(legacyName);
+            long size = removeEntry(legacyName, false);
+            lruEntries.put(nameOf(file), size);
+            cacheSize += size;
+            setDueTime(nameOf(file), dueTime == null ? NO_DUE_TIME : dueTime);
+            appendJournal(cleanLine(nameOf(file), size), true);
+        }
+
+        private boolean remove(String key) {
+            File file = newFile(key);
+            String legacyName = String.valueOf(key.hashCode());
+            boolean removed = false;
+            Lock lock = lockFor(file).writeLock();
+            lock.lock();
+            try {
+                if (!initialized) {
+                    removed = file.delete() | new File(cacheDir, legacyName).delete();
+                    if (deferUntilInitialized(nameOf(file), NO_DUE_TIME)
+                            & deferUntilInitialized(legacyName, NO_DUE_TIME)) {
+                        return removed;
+                    }
+                }
+                synchronized (this) {
+                    removeEntry(nameOf(file), true);
+                    removed |= file.delete();
+                    if (legacyCount > 0 && lruEntries.containsKey(legacyName)) {
+                        removeEntry(legacyName, true);
+                        removed |= new File(cacheDir, legacyName).delete();
+                    }
                 }
+            } finally {
+                lock.unlock();
             }
+            return removed;
+        }
+
+        /**
+         * 从索引中移除文件
+         *
+         * @return 文件在索引中记录的大小，不在索引中时返回0
+         */
+        private long removeEntry(String name, boolean flush) {
+            return forgetEntry(name, lruEntries.remove(name), flush);
+        }
+
+        /**
+         * 更新已从lruEntries中移除的文件的其他索引
+         */
+        private long forgetEntry(String name, Long size, boolean flush) {
+            clearDueTime(name);
+            if (size == null) return 0;
+            cacheSize -= size;
+            if (isLegacyName(name)) legacyCount--;
+            appendJournal(REMOVE + ' ' + name + '\n', flush);
+            return size;
         }
 
         /**
-         * 移除旧的文件
+         * 按过期时间索引分批删除已过期的文件
+         * <p>删除前重新读取文件头，避免误删在此期间被重新写入的文件；每批只在更新索引时持有锁。</p>
          *
-         * @return
-         */
-        private long removeNext() {
-            if (lastUsageDates.isEmpty()) {
-                return 0;
-            }
-
-            Long oldestUsage = null;
-            File mostLongUsedFile = null;
-            Set<Map.Entry<File, Long>> entries = lastUsageDates.entrySet();
-            synchronized (lastUsageDates) {
-                for (Map.Entry<File, Long> entry : entries) {
-                    if (mostLongUsedFile == null) {
-                        mostLongUsedFile = entry.getKey();
-                        oldestUsage = entry.getValue();
-                    } else {
-                        Long lastValueUsage = entry.getValue();
-                        if (lastValueUsage < oldestUsage) {
-                            oldestUsage = lastValueUsage;
-                            mostLongUsedFile = entry.getKey();
+         * @return 释放的空间大小
+         */
+        private long sweepExpired() {
+            awaitInitialized();
+            long now = System.currentTimeMillis();
+            List<String> expiredNames = new ArrayList<>();
+            synchronized (this) {
+                for (Set<String> names : expiryIndex.headMap(now, false).values()) {
+                    expiredNames.addAll(names);
+                }
+            }
+            long reclaimedBytes = 0;
+            for (int from = 0; from < expiredNames.size(); from += SWEEP_BATCH) {
+                List<String> batch = expiredNames.subList(from, Math.min(from + SWEEP_BATCH, expiredNames.size()));
+                Map<String, Long> refreshed = new HashMap<>();
+                for (String name : batch) {
+                    File file = new File(cacheDir, name);
+                    // 持有文件写锁完成检查和删除，避免删掉刚被重新写入的文件
+                    Lock lock = lockFor(file).writeLock();
+                    lock.lock();
+                    try {
+                        long dueTime = file.exists() ? EntryHeader.readDueTime(file) : 0;
+                        if (dueTime >= now) {
+                            refreshed.put(name, dueTime);
+                        } else if (file.delete() || !file.exists()) {
+                            synchronized (this) {
+                                reclaimedBytes += removeEntry(name, false);
+                            }
+                        }
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+                synchronized (this) {
+                    for (Map.Entry<String, Long> entry : refreshed.entrySet()) {
+                        if (lruEntries.containsKey(entry.getKey())) {
+                            setDueTime(entry.getKey(), entry.getValue());
                         }
                     }
+                    flushJournal();
+                }
+            }
+            return reclaimedBytes;
+        }
+
+        private void flushJournal() {
+            if (journalWriter == null) return;
+            try {
+                journalWriter.flush();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        /**
+         * 删除所有文件，逐个持有文件写锁删除，不会删掉正在写入的文件
+         */
+        private void clear() {
+            awaitInitialized();
+            Set<String> names = new LinkedHashSet<>();
+            synchronized (this) {
+                names.addAll(lruEntries.keySet());
+            }
+            for (File file : listCacheFiles()) {
+                names.add(nameOf(file));
+            }
+            for (String name : names) {
+                File file = new File(cacheDir, name);
+                Lock lock = lockFor(file).writeLock();
+                lock.lock();
+                try {
+                    synchronized (this) {
+                        removeEntry(name, false);
+                        file.delete();
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+            synchronized (this) {
+                try {
+                    rebuildJournal();
+                } catch (IOException e) {
+                    e.printStackTrace();
                 }
             }
+        }
 
-            long fileSize = calculateSize(mostLongUsedFile);
-            if (mostLongUsedFile.delete()) {
-                lastUsageDates.remove(mostLongUsedFile);
+        /**
+         * 从最久未使用的文件开始淘汰，直到缓存大小和数量都在限制内
+         * <p>调用方持有索引锁，只尝试获取文件写锁：正在被写入的文件跳过，留待下次淘汰，
+         * 避免删掉已重命名到位、尚未加入索引的新文件。</p>
+         */
+        private void trimToSize() {
+            boolean trimmed = false;
+            Iterator<Map.Entry<String, Long>> iterator = lruEntries.entrySet().iterator();
+            while ((cacheSize > sizeLimit || lruEntries.size() > countLimit) && iterator.hasNext()) {
+                Map.Entry<String, Long> entry = iterator.next();
+                File file = new File(cacheDir, entry.getKey());
+                Lock lock = lockFor(file).writeLock();
+                if (!lock.tryLock()) continue;
+                try {
+                    iterator.remove();
+                    file.delete();
+                    forgetEntry(entry.getKey(), entry.getValue(), false);
+                    trimmed = true;
+                } finally {
+                    lock.unlock();
+                }
             }
-            return fileSize;
+            if (trimmed) flushJournal();
         }
 
         private long calculateSize(File file) {
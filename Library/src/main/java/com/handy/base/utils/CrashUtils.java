@@ -118,11 +118,13 @@ public final class CrashUtils implements UncaughtExceptionHandler {
 
     @Override
     public void uncaughtException(Thread thread, final Throwable throwable) {
+        // 在当前线程写入日志，保证进程退出前缓冲区中的日志已写入文件
+        LogUtils.e(Log.getStackTraceString(throwable));
+        LogUtils.flush();
         new Thread() {
             @Override
             public void run() {
                 Looper.prepare();
-                LogUtils.e(Log.getStackTraceString(throwable));
                 Toast.makeText(Utils.getApplicationContext(), "很抱歉：程序出现异常即将退出", Toast.LENGTH_LONG).show();
                 Looper.loop();
             }
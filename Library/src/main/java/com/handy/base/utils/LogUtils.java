@@ -12,17 +12,29 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.text.Format;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
-import java.util.Formatter;
+import java.util.List;
 import java.util.Locale;
-import java.util.concurrent.ExecutorService;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Source;
@@ -60,7 +72,20 @@ public final class LogUtils {
     private static final String NULL_TIPS = "Log with null object.";
     private static final String NULL = "null";
     private static final String ARGS = "args";
-    private static ExecutorService executor;
+    private static final int BUFFER_CAPACITY = 1024;  // 文件缓冲区最多保存的日志条数
+    private static final int FLUSH_SIZE = 8 * 1024;   // 缓冲区字符数达到该值时立即写入文件
+    private static final long FLUSH_INTERVAL = 1000;  // 日志在缓冲区中最长的等待时间，毫秒
+    private static final String SEGMENT_NAME = "log.mmap";
+    private static final int SEGMENT_SIZE = 256 * 1024;
+    private static final int SEGMENT_MAGIC = 0x4C4F4731; // "LOG1"
+    private static final int SEGMENT_HEADER = 8;          // 魔数 + 写入位置
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String LOG_CLASS_NAME = LogUtils.class.getName();
+    private static final int MAX_CALL_SITES = 512;   // 最多缓存的调用位置数
+    private static final Map<StackTraceElement, String[]> CALL_SITES = new ConcurrentHashMap<>();
+    private static final Map<String, String> CLASS_NAMES = new ConcurrentHashMap<>();
+    private static final Pattern LOG_FILE_NAME = Pattern.compile("\\d{2}-\\d{2}(_\\d+)?\\.txt(\\.gz)?");
+    private static final FileAppender APPENDER = new FileAppender();
     private static String defaultDir;// log默认存储目录
     private static String dir;       // log存储目录
     private static boolean sLogSwitch = true; // log总开关，默认开
@@ -68,6 +93,10 @@ public final class LogUtils {
     private static boolean sTagIsSpace = true; // log标签是否为空白
     private static boolean sLogHeadSwitch = true; // log头部开关，默认开
     private static boolean sLog2FileSwitch = false;// log写入文件开关，默认关
+    private static boolean sLogMmapSwitch = false; // log内存映射缓存开关，默认关
+    private static long sLogFileMaxSize = 4 * 1024 * 1024; // 单个log文件大小上限，超过后轮转，默认4MB
+    private static long sLogDirMaxSize = 32 * 1024 * 1024; // log目录总大小上限，默认32MB
+    private static int sLogRetentionDays = 0;       // 归档log保留天数，默认不限
     private static boolean sLogBorderSwitch = true; // log边框开关，默认开
     private static int sLogFilter = V;    // log过滤器
 
@@ -75,6 +104,18 @@ public final class LogUtils {
         throw new UnsupportedOperationException("u can't instantiate me...");
     }
 
+    /**
+     * 获取与自动生成的标签相同的类名标签
+     * <p>在类中保存为常量，如 {@code private static final String TAG = LogUtils.getTag(MainActivity.class);}，
+     * 以该标签打印日志且关闭日志头部时，不再获取调用栈。</p>
+     *
+     * @param clazz 类
+     * @return 标签
+     */
+    public static String getTag(Class<?> clazz) {
+        return getSimpleClassName(clazz.getName());
+    }
+
     public static void v(Object contents) {
         log(V, sGlobalTag, contents);
     }
@@ -83,6 +124,14 @@ public final class LogUtils {
         log(V, tag, contents);
     }
 
+    public static void v(MessageSupplier supplier) {
+        log(V, sGlobalTag, supplier);
+    }
+
+    public static void v(String tag, MessageSupplier supplier) {
+        log(V, tag, lazy(supplier));
+    }
+
     public static void d(Object contents) {
         log(D, sGlobalTag, contents);
     }
@@ -91,6 +140,14 @@ public final class LogUtils {
         log(D, tag, contents);
     }
 
+    public static void d(MessageSupplier supplier) {
+        log(D, sGlobalTag, supplier);
+    }
+
+    public static void d(String tag, MessageSupplier supplier) {
+        log(D, tag, lazy(supplier));
+    }
+
     public static void i(Object contents) {
         log(I, sGlobalTag, contents);
     }
@@ -99,6 +156,14 @@ public final class LogUtils {
         log(I, tag, contents);
     }
 
+    public static void i(MessageSupplier supplier) {
+        log(I, sGlobalTag, supplier);
+    }
+
+    public static void i(String tag, MessageSupplier supplier) {
+        log(I, tag, lazy(supplier));
+    }
+
     public static void w(Object contents) {
         log(W, sGlobalTag, contents);
     }
@@ -107,6 +172,14 @@ public final class LogUtils {
         log(W, tag, contents);
     }
 
+    public static void w(MessageSupplier supplier) {
+        log(W, sGlobalTag, supplier);
+    }
+
+    public static void w(String tag, MessageSupplier supplier) {
+        log(W, tag, lazy(supplier));
+    }
+
     public static void e(Object contents) {
         log(E, sGlobalTag, contents);
     }
@@ -115,6 +188,14 @@ public final class LogUtils {
         log(E, tag, contents);
     }
 
+    public static void e(MessageSupplier supplier) {
+        log(E, sGlobalTag, supplier);
+    }
+
+    public static void e(String tag, MessageSupplier supplier) {
+        log(E, tag, lazy(supplier));
+    }
+
     public static void a(Object contents) {
         log(A, sGlobalTag, contents);
     }
@@ -123,6 +204,14 @@ public final class LogUtils {
         log(A, tag, contents);
     }
 
+    public static void a(MessageSupplier supplier) {
+        log(A, sGlobalTag, supplier);
+    }
+
+    public static void a(String tag, MessageSupplier supplier) {
+        log(A, tag, lazy(supplier));
+    }
+
     public static void file(Object contents) {
         log(FILE, sGlobalTag, contents);
     }
@@ -147,8 +236,28 @@ public final class LogUtils {
         log(XML, tag, contents);
     }
 
+    /**
+     * 将缓冲区中的日志立即写入文件
+     * <p>日志文件按批写入，进程崩溃或退出前需调用此方法，{@link CrashUtils} 已自动调用。</p>
+     */
+    public static void flush() {
+        APPENDER.flush();
+    }
+
+    /**
+     * 判断该级别的日志是否会输出，可在构建复杂日志前调用
+     *
+     * @param type 日志级别
+     * @return {@code true}: 会输出<br>{@code false}: 被过滤
+     */
+    public static boolean isLoggable(@TYPE int type) {
+        // json、xml按D级别过滤，写入文件的日志不过滤
+        return sLogSwitch && (type == FILE || (type == JSON || type == XML ? D : type) >= sLogFilter);
+    }
+
     private static void log(int type, String tag, Object... contents) {
-        if (!sLogSwitch) return;
+        // 被过滤的日志在获取调用栈和格式化之前返回
+        if (!isLoggable(type)) return;
         final String[] processContents = processContents(type, tag, contents);
         tag = processContents[0];
         String msg = processContents[1];
@@ -159,11 +268,9 @@ public final class LogUtils {
             case W:
             case E:
             case A:
-                if (type >= sLogFilter) {
-                    printLog(type, tag, msg);
-                    if (sLog2FileSwitch) {
-                        print2File(tag, msg);
-                    }
+                printLog(type, tag, msg);
+                if (sLog2FileSwitch) {
+                    print2File(tag, msg);
                 }
                 break;
             case FILE:
@@ -182,27 +289,20 @@ public final class LogUtils {
         String head = "";
         if (!sTagIsSpace && !sLogHeadSwitch) {
             tag = sGlobalTag;
-        } else {
-            StackTraceElement targetElement = Thread.currentThread().getStackTrace()[5];
-            String className = targetElement.getClassName();
-            String[] classNameInfo = className.split("\\.");
-            if (classNameInfo.length > 0) {
-                className = classNameInfo[classNameInfo.length - 1];
-            }
-            if (className.contains("$")) {
-                className = className.split("\\$")[0];
-            }
-            if (sTagIsSpace) {
-                tag = isSpace(tag) ? className : tag;
+        } else if (sLogHeadSwitch || isSpace(tag)) {
+            // 只有需要日志头部或自动生成标签时才获取调用位置
+            String[] callSite = getCallSite();
+            if (sTagIsSpace && isSpace(tag)) {
+                tag = callSite[0];
             }
             if (sLogHeadSwitch) {
-                head = new Formatter().format("Thread: %s, %s(%s.java:%d)" + LINE_SEP, Thread.currentThread().getName(), targetElement.getMethodName(), className, targetElement.getLineNumber()).toString();
+                head = "Thread: " + Thread.currentThread().getName() + ", " + callSite[1] + LINE_SEP;
             }
         }
         String body = NULL_TIPS;
         if (contents != null) {
             if (contents.length == 1) {
-                Object object = contents[0];
+                Object object = supply(contents[0]);
                 body = object == null ? NULL : object.toString();
                 if (type == JSON) {
                     body = formatJson(body);
@@ -212,7 +312,7 @@ public final class LogUtils {
             } else {
                 StringBuilder sb = new StringBuilder();
                 for (int i = 0, len = contents.length; i < len; ++i) {
-                    Object content = contents[i];
+                    Object content = supply(contents[i]);
                     sb.append(ARGS).append("[").append(i).append("]").append(" = ").append(content == null ? NULL : content.toString()).append(LINE_SEP);
                 }
                 body = sb.toString();
@@ -220,16 +320,84 @@ public final class LogUtils {
         }
         String msg = head + body;
         if (sLogBorderSwitch) {
-            StringBuilder sb = new StringBuilder();
-            String[] lines = msg.split(LINE_SEP);
-            for (String line : lines) {
-                sb.append(LEFT_BORDER).append(line).append(LINE_SEP);
-            }
-            msg = sb.toString();
+            msg = addLeftBorder(msg);
         }
         return new String[]{tag, msg};
     }
 
+    /**
+     * 获取调用位置
+     * <p>跳过 LogUtils 自身的栈帧，不依赖固定的调用深度；结果按调用位置缓存。</p>
+     *
+     * @return {类名, "方法名(类名.java:行号)"}
+     */
+    private static String[] getCallSite() {
+        StackTraceElement[] stackTrace = new Throwable().getStackTrace();
+        for (StackTraceElement element : stackTrace) {
+            if (LOG_CLASS_NAME.equals(element.getClassName())) continue;
+            String[] callSite = CALL_SITES.get(element);
+            if (callSite == null) {
+                String className = getSimpleClassName(element.getClassName());
+                callSite = new String[]{className,
+                        element.getMethodName() + "(" + className + ".java:" + element.getLineNumber() + ")"};
+                if (CALL_SITES.size() >= MAX_CALL_SITES) {
+                    CALL_SITES.clear();
+                }
+                CALL_SITES.put(element, callSite);
+            }
+            return callSite;
+        }
+        return new String[]{LogUtils.class.getSimpleName(), NULL};
+    }
+
+    /**
+     * 获取不含包名和内部类名的类名，如 com.handy.MainActivity$1 返回 MainActivity
+     */
+    private static String getSimpleClassName(String className) {
+        String simpleName = CLASS_NAMES.get(className);
+        if (simpleName == null) {
+            int start = className.lastIndexOf('.') + 1;
+            int end = className.indexOf('$', start);
+            simpleName = className.substring(start, end == -1 ? className.length() : end);
+            CLASS_NAMES.put(className, simpleName);
+        }
+        return simpleName;
+    }
+
+    /**
+     * 每行前添加左边框，忽略末尾的空行
+     */
+    private static String addLeftBorder(String msg) {
+        int sepLength = LINE_SEP.length();
+        int end = msg.length();
+        while (end >= sepLength && msg.startsWith(LINE_SEP, end - sepLength)) {
+            end -= sepLength;
+        }
+        StringBuilder sb = new StringBuilder(end + 64);
+        int start = 0;
+        while (start <= end) {
+            int next = msg.indexOf(LINE_SEP, start);
+            if (next == -1 || next > end) {
+                next = end;
+            }
+            sb.append(LEFT_BORDER).append(msg, start, next).append(LINE_SEP);
+            start = next + sepLength;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 包装延迟构建的日志内容
+     * <p>{@code d(tag, null)} 会匹配到延迟构建的重载，为null时仍按空参数输出 {@link #NULL_TIPS}。</p>
+     */
+    private static Object[] lazy(MessageSupplier supplier) {
+        return supplier == null ? null : new Object[]{supplier};
+    }
+
+    private static Object supply(Object content) {
+        return content instanceof MessageSupplier ? ((MessageSupplier) content).get() : content;
+    }
+
     private static String formatJson(String json) {
         try {
             if (json.startsWith("{")) {
@@ -308,10 +476,6 @@ public final class LogUtils {
         String date = format.substring(0, 5);
         String time = format.substring(6);
         final String fullPath = (dir == null ? defaultDir : dir) + date + ".txt";
-        if (!createOrExistsFile(fullPath)) {
-            Log.e(tag, "log to " + fullPath + " failed!");
-            return;
-        }
         StringBuilder sb = new StringBuilder();
         if (sLogBorderSwitch) {
             sb.append(TOP_BORDER).append(LINE_SEP);
@@ -321,32 +485,7 @@ public final class LogUtils {
             sb.append(time).append(tag).append(LINE_SEP).append(msg).append(LINE_SEP);
         }
         sb.append(LINE_SEP);
-        final String dateLogContent = sb.toString();
-        if (executor == null) {
-            executor = Executors.newSingleThreadExecutor();
-        }
-        executor.execute(new Runnable() {
-            @Override
-            public void run() {
-                BufferedWriter bw = null;
-                try {
-                    bw = new BufferedWriter(new FileWriter(fullPath, true));
-                    bw.write(dateLogContent);
-                    Log.d(tag, "log to " + fullPath + " success!");
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    Log.e(tag, "log to " + fullPath + " failed!");
-                } finally {
-                    try {
-                        if (bw != null) {
-                            bw.close();
-                        }
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                }
-            }
-        });
+        APPENDER.append(fullPath, sb.toString());
     }
 
     private static boolean createOrExistsFile(String filePath) {
@@ -375,6 +514,402 @@ public final class LogUtils {
         return true;
     }
 
+    /**
+     * 日志文件写入器
+     * <p>日志先写入有界环形缓冲区，缓冲的字符数达到 {@link #FLUSH_SIZE} 或等待超过 {@link #FLUSH_INTERVAL}
+     * 后由后台线程批量写入；每个日期文件只打开一次，被外部删除时重新创建。
+     * 缓冲区满时丢弃最早的日志，并在文件中记录丢弃条数。</p>
+     * <p>文件超过大小上限或日期变化后，之前的文件在后台压缩为 .gz 归档，目录总大小超过上限时删除最早的归档。</p>
+     * <p>开启内存映射缓存后，日志同时写入内存映射的日志段，进程被杀时由系统将其保存到磁盘，
+     * 下次开启时补写到日志文件；日志段中的记录写入文件后即被移除。</p>
+     */
+    private static final class FileAppender implements Runnable {
+        private final String[] paths = new String[BUFFER_CAPACITY];
+        private final String[] contents = new String[BUFFER_CAPACITY];
+        private final Object writeLock = new Object();
+        private int head;
+        private int size;
+        private int chars;
+        private int dropped;
+        private boolean flushPending;
+        private boolean flushDelayed;
+        private ScheduledExecutorService executor;
+        private String writerPath;
+        private Writer writer;
+        private MappedByteBuffer segment;
+        private boolean recovering; //正在补写日志段中的日志，此时打开的文件不是当前日志文件，不触发归档
+
+        synchronized void append(String path, String content) {
+            if (size == BUFFER_CAPACITY) {
+                chars -= contents[head].length();
+                paths[head] = null;
+                contents[head] = null;
+                head = (head + 1) % BUFFER_CAPACITY;
+                size--;
+                dropped++;
+            }
+            int tail = (head + size) % BUFFER_CAPACITY;
+            paths[tail] = path;
+            contents[tail] = content;
+            size++;
+            chars += content.length();
+            if (executor == null) {
+                executor = Executors.newSingleThreadScheduledExecutor();
+            }
+            boolean segmentFull = segment != null && !appendSegment(path, content);
+            if (chars >= FLUSH_SIZE || segmentFull) {
+                if (!flushPending) {
+                    flushPending = true;
+                    executor.execute(this);
+                }
+            } else if (!flushDelayed) {
+                flushDelayed = true;
+                executor.schedule(this, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        @Override
+        public void run() {
+            flush();
+        }
+
+        private synchronized ScheduledExecutorService getExecutor() {
+            if (executor == null) {
+                executor = Executors.newSingleThreadScheduledExecutor();
+            }
+            return executor;
+        }
+
+        void flush() {
+            synchronized (writeLock) {
+                String[] batchPaths;
+                String[] batchContents;
+                int lost;
+                int committed;
+                synchronized (this) {
+                    flushPending = false;
+                    flushDelayed = false;
+                    if (size == 0) return;
+                    batchPaths = new String[size];
+                    batchContents = new String[size];
+                    for (int i = 0; i < size; i++) {
+                        int index = (head + i) % BUFFER_CAPACITY;
+                        batchPaths[i] = paths[index];
+                        batchContents[i] = contents[index];
+                        paths[index] = null;
+                        contents[index] = null;
+                    }
+                    lost = dropped;
+                    head = 0;
+                    size = 0;
+                    chars = 0;
+                    dropped = 0;
+                    committed = segment == null ? SEGMENT_HEADER : segment.getInt(4);
+                }
+                if (write(batchPaths, batchContents, lost)) {
+                    synchronized (this) {
+                        if (segment != null) {
+                            removeSegment(committed);
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * 在后台线程映射日志段，并将上次进程退出时未写入文件的日志补写到日志文件
+         */
+        void openSegment(final File file) {
+            getExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    mapAndRecoverSegment(file);
+                }
+            });
+        }
+
+        /**
+         * 在后台线程写入缓冲区中的日志后关闭日志段，与打开日志段按调用顺序执行
+         */
+        void closeSegment(final File file) {
+            getExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    unmapSegment(file);
+                }
+            });
+        }
+
+        private void mapAndRecoverSegment(File file) {
+            synchronized (writeLock) {
+                if (segment != null) return;
+                MappedByteBuffer buffer = mapSegment(file);
+                if (buffer == null) return;
+                List<String> recoveredPaths = new ArrayList<>();
+                List<String> recoveredContents = new ArrayList<>();
+                if (buffer.getInt(0) == SEGMENT_MAGIC) {
+                    int end = Math.min(buffer.getInt(4), SEGMENT_SIZE);
+                    int position = SEGMENT_HEADER;
+                    while (position + 6 <= end) {
+                        int length = buffer.getInt(position);
+                        int pathLength = buffer.getShort(position + 4);
+                        if (length < 6 + pathLength || pathLength <= 0 || position + length > end) break;
+                        byte[] bytes = new byte[length - 6];
+                        buffer.position(position + 6);
+                        buffer.get(bytes);
+                        recoveredPaths.add(new String(bytes, 0, pathLength, UTF_8));
+                        recoveredContents.add(new String(bytes, pathLength, bytes.length - pathLength, UTF_8));
+                        position += length;
+                    }
+                }
+                if (!recoveredPaths.isEmpty()) {
+                    recovering = true;
+                    try {
+                        write(recoveredPaths.toArray(new String[recoveredPaths.size()]),
+                                recoveredContents.toArray(new String[recoveredContents.size()]), 0);
+                    } finally {
+                        recovering = false;
+                        // 之后的日志重新打开当前日期的文件，并由此触发归档
+                        closeWriter();
+                    }
+                }
+                buffer.putInt(0, SEGMENT_MAGIC);
+                buffer.putInt(4, SEGMENT_HEADER);
+                synchronized (this) {
+                    segment = buffer;
+                }
+            }
+        }
+
+        private void unmapSegment(File file) {
+            flush();
+            synchronized (writeLock) {
+                synchronized (this) {
+                    if (segment == null) return;
+                    segment = null;
+                }
+                if (!file.delete()) {
+                    Log.e("LogUtils", "delete " + file + " failed!");
+                }
+            }
+        }
+
+        private MappedByteBuffer mapSegment(File file) {
+            if (!createOrExistsDir(file.getParentFile())) return null;
+            RandomAccessFile raf = null;
+            try {
+                raf = new RandomAccessFile(file, "rw");
+                raf.setLength(SEGMENT_SIZE);
+                // 关闭文件后映射依然有效
+                return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            } finally {
+                CloseUtils.closeIO(raf);
+            }
+        }
+
+        /**
+         * 追加一条记录：记录长度(int) + 路径长度(short) + 路径 + 内容，最后更新写入位置
+         *
+         * @return {@code false}: 日志段已满
+         */
+        private boolean appendSegment(String path, String content) {
+            byte[] pathBytes = path.getBytes(UTF_8);
+            byte[] contentBytes = content.getBytes(UTF_8);
+            int end = segment.getInt(4);
+            int length = 6 + pathBytes.length + contentBytes.length;
+            if (end + length > SEGMENT_SIZE) return false;
+            segment.putInt(end, length);
+            segment.putShort(end + 4, (short) pathBytes.length);
+            segment.position(end + 6);
+            segment.put(pathBytes);
+            segment.put(contentBytes);
+            segment.putInt(4, end + length);
+            return true;
+        }
+
+        /**
+         * 移除已写入文件的记录，将之后追加的记录移到日志段开头
+         */
+        private void removeSegment(int committed) {
+            int end = segment.getInt(4);
+            byte[] remaining = new byte[end - committed];
+            segment.position(committed);
+            segment.get(remaining);
+            // 先清空再移动，移动过程中进程被杀只会丢失这几条记录
+            segment.putInt(4, SEGMENT_HEADER);
+            segment.position(SEGMENT_HEADER);
+            segment.put(remaining);
+            segment.putInt(4, SEGMENT_HEADER + remaining.length);
+        }
+
+        private boolean write(String[] batchPaths, String[] batchContents, int lost) {
+            if (writerPath != null && !new File(writerPath).exists()) {
+                closeWriter();
+            }
+            try {
+                for (int i = 0; i < batchPaths.length; i++) {
+                    if (!openWriter(batchPaths[i])) continue;
+                    if (lost > 0) {
+                        writer.write("... " + lost + " log(s) dropped, file buffer full" + LINE_SEP + LINE_SEP);
+                        lost = 0;
+                    }
+                    writer.write(batchContents[i]);
+                }
+                if (writer != null) {
+                    writer.flush();
+                    if (sLogFileMaxSize > 0 && new File(writerPath).length() >= sLogFileMaxSize) {
+                        rotate();
+                    }
+                }
+                return true;
+            } catch (IOException e) {
+                e.printStackTrace();
+                Log.e("LogUtils", "log to " + writerPath + " failed!");
+                closeWriter();
+                return false;
+            }
+        }
+
+        /**
+         * 切换到指定日期的文件
+         */
+        private boolean openWriter(String path) throws IOException {
+            if (path.equals(writerPath) && writer != null) {
+                return true;
+            }
+            if (writer != null) {
+                writer.flush();
+            }
+            closeWriter();
+            if (!createOrExistsFile(path)) {
+                Log.e("LogUtils", "log to " + path + " failed!");
+                return false;
+            }
+            writer = new BufferedWriter(new FileWriter(path, true));
+            writerPath = path;
+            // 切换到新的日期文件时归档之前的文件，补写的可能是之前日期的文件，不能作为当前文件
+            if (!recovering) {
+                scheduleArchive(path);
+            }
+            return true;
+        }
+
+        /**
+         * 当前文件超过大小上限时重命名为 MM-dd_时间戳.txt，之后的日志写入新文件
+         */
+        private void rotate() {
+            String path = writerPath;
+            closeWriter();
+            File rotated = new File(path.substring(0, path.length() - 4) + "_" + System.currentTimeMillis() + ".txt");
+            if (!new File(path).renameTo(rotated)) {
+                Log.e("LogUtils", "rotate " + path + " failed!");
+                return;
+            }
+            if (!recovering) {
+                scheduleArchive(path);
+            }
+        }
+
+        private void scheduleArchive(final String activePath) {
+            getExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (writeLock) {
+                        archive(new File(activePath));
+                    }
+                }
+            });
+        }
+
+        /**
+         * 在后台压缩除当前文件外的日志文件，删除超过保留天数的归档，
+         * 并在目录总大小超过上限时从最早的归档开始删除
+         * <p>调用方需持有writeLock，避免压缩期间有日志追加到正在压缩的文件；正在写入的文件按执行时的writerPath跳过。</p>
+         */
+        private void archive(File activeFile) {
+            File[] files = activeFile.getParentFile().listFiles();
+            if (files == null) return;
+            File writerFile = writerPath == null ? null : new File(writerPath);
+            for (File file : files) {
+                String name = file.getName();
+                if (!name.endsWith(".txt") || file.equals(activeFile) || file.equals(writerFile)
+                        || !LOG_FILE_NAME.matcher(name).matches()) continue;
+                File gzipFile = new File(file.getPath() + ".gz");
+                if (gzipFile.exists()) {
+                    gzipFile = new File(file.getPath().substring(0, file.getPath().length() - 4)
+                            + "_" + file.lastModified() + ".txt.gz");
+                }
+                try {
+                    if (ZipUtils.gzipFile(file, gzipFile)) {
+                        gzipFile.setLastModified(file.lastModified());
+                        if (!file.delete()) {
+                            Log.e("LogUtils", "delete " + file + " failed!");
+                        }
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    if (!gzipFile.delete()) {
+                        Log.e("LogUtils", "delete " + gzipFile + " failed!");
+                    }
+                }
+            }
+
+            files = activeFile.getParentFile().listFiles();
+            if (files == null) return;
+            List<File> archives = new ArrayList<>();
+            long totalSize = 0;
+            for (File file : files) {
+                if (!LOG_FILE_NAME.matcher(file.getName()).matches()) continue;
+                totalSize += file.length();
+                if (!file.equals(activeFile) && !file.equals(writerFile)) {
+                    archives.add(file);
+                }
+            }
+            Collections.sort(archives, new Comparator<File>() {
+                @Override
+                public int compare(File lhs, File rhs) {
+                    long lhsTime = lhs.lastModified();
+                    long rhsTime = rhs.lastModified();
+                    return lhsTime < rhsTime ? -1 : (lhsTime == rhsTime ? 0 : 1);
+                }
+            });
+            long expiredTime = sLogRetentionDays > 0
+                    ? System.currentTimeMillis() - sLogRetentionDays * 24L * 60 * 60 * 1000 : 0;
+            for (File archive : archives) {
+                if (archive.lastModified() >= expiredTime && (sLogDirMaxSize <= 0 || totalSize <= sLogDirMaxSize)) break;
+                long length = archive.length();
+                if (archive.delete()) {
+                    totalSize -= length;
+                } else {
+                    Log.e("LogUtils", "delete " + archive + " failed!");
+                }
+            }
+        }
+
+        private void closeWriter() {
+            CloseUtils.closeIO(writer);
+            writer = null;
+            writerPath = null;
+        }
+    }
+
+    /**
+     * 延迟构建的日志内容，仅在日志会输出时调用
+     * <pre>
+     * LogUtils.d(new LogUtils.MessageSupplier() {
+     *     public Object get() {
+     *         return buildDetail();
+     *     }
+     * });
+     * </pre>
+     */
+    public interface MessageSupplier {
+        Object get();
+    }
+
     @IntDef({V, D, I, W, E, A})
     @Retention(RetentionPolicy.SOURCE)
     private @interface TYPE {
@@ -417,6 +952,57 @@ public final class LogUtils {
             return this;
         }
 
+        /**
+         * 设置是否将写入文件的日志先保存到内存映射的日志段
+         * <p>开启后进程被杀时尚未写入文件的日志不会丢失，下次开启时补写到日志文件。</p>
+         *
+         * @param logMmapSwitch 开关
+         * @return Builder
+         */
+        public Builder setLogMmapSwitch(boolean logMmapSwitch) {
+            LogUtils.sLogMmapSwitch = logMmapSwitch;
+            File segment = new File(defaultDir, SEGMENT_NAME);
+            if (logMmapSwitch) {
+                APPENDER.openSegment(segment);
+            } else {
+                APPENDER.closeSegment(segment);
+            }
+            return this;
+        }
+
+        /**
+         * 设置单个log文件的大小上限，超过后轮转为新文件并在后台压缩
+         *
+         * @param maxSize 字节数，小于等于0时不限制
+         * @return Builder
+         */
+        public Builder setLogFileMaxSize(long maxSize) {
+            LogUtils.sLogFileMaxSize = maxSize;
+            return this;
+        }
+
+        /**
+         * 设置log目录的总大小上限，超过后从最早的归档开始删除
+         *
+         * @param maxSize 字节数，小于等于0时不限制
+         * @return Builder
+         */
+        public Builder setLogDirMaxSize(long maxSize) {
+            LogUtils.sLogDirMaxSize = maxSize;
+            return this;
+        }
+
+        /**
+         * 设置归档log的保留天数
+         *
+         * @param days 天数，小于等于0时不限制
+         * @return Builder
+         */
+        public Builder setLogRetentionDays(int days) {
+            LogUtils.sLogRetentionDays = days;
+            return this;
+        }
+
         public Builder setDir(final String dir) {
             if (isSpace(dir)) {
                 LogUtils.dir = null;
@@ -447,6 +1033,10 @@ public final class LogUtils {
                     + LINE_SEP + "tag: " + (sGlobalTag.equals("") ? "null" : sGlobalTag)
                     + LINE_SEP + "head: " + sLogHeadSwitch
                     + LINE_SEP + "file: " + sLog2FileSwitch
+                    + LINE_SEP + "mmap: " + sLogMmapSwitch
+                    + LINE_SEP + "file max size: " + sLogFileMaxSize
+                    + LINE_SEP + "dir max size: " + sLogDirMaxSize
+                    + LINE_SEP + "retention days: " + sLogRetentionDays
                     + LINE_SEP + "dir: " + (dir == null ? defaultDir : dir)
                     + LINE_SEP + "border: " + sLogBorderSwitch
                     + LINE_SEP + "filter: " + (sLogFilter == V ? "verbose" : "not verbose");
@@ -3,13 +3,49 @@ package com.handy.base.utils;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
+import android.util.LruCache;
 
 import com.handy.base.utils.bean.SQLTable;
 
+import io.reactivex.Flowable;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.functions.Function;
+import io.reactivex.functions.Predicate;
+import io.reactivex.processors.FlowableProcessor;
+import io.reactivex.processors.PublishProcessor;
+import io.reactivex.schedulers.Schedulers;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * 数据库公共类，提供基本数据库操作
@@ -17,15 +53,31 @@ import java.util.List;
  * Created by LiuJie on 2016/10/25.
  */
 public class SQLiteUtils {
+    private static final int DEFAULT_BATCH_SIZE = 500; //批量写入时每个事务包含的默认行数
+    private static final int DEFAULT_SQL_CACHE_SIZE = 50; //默认缓存的SQL语句数
+    private static final String INDEX_TABLE = "handy_indexes"; //记录通过SQLTable声明创建的索引
+    private static final int DB_THREAD_COUNT = 2; //异步操作的数据库线程数
+    private static final String INITIAL_QUERY = ""; //监听查询首次执行的触发信号
     private static SQLiteUtils sqLiteUtils = null;
 
     private Context context;
-    private Cursor cursor; //查询游标对象
+    private final ThreadLocal<Deque<QueryCursor>> cursors = new ThreadLocal<>(); //当前线程未关闭的查询游标，每个游标持有一次连接引用
+    private final ThreadLocal<Integer> openCount = new ThreadLocal<>(); //当前线程通过open()持有的连接引用数
     private int DB_VERSION = 1; //数据库版本
     private String DB_NAME = "HandyBase.db"; //默认数据库
     private DatabaseHelper databaseHelper = null; //由SQLiteOpenHelper继承过来
     private SQLiteDatabase sqLiteDatabase = null; //执行open()打开数据库时，保存返回的数据库对象
     private List<SQLTable> sqLiteTables = new ArrayList<>(); //数据库表对象数据集合
+    private final Object connectionLock = new Object(); //数据库连接锁
+    private int refCount = 0; //数据库连接引用计数
+    private boolean keepAlive = true; //引用计数为0时是否保持数据库连接
+    private final ReentrantLock writerLock = new ReentrantLock(); //写操作串行锁，所有写操作经由同一个连接依次执行
+    private boolean writeAheadLogging = false; //是否开启WAL模式
+    private final FlowableProcessor<String> tableChanges = PublishProcessor.<String>create().toSerialized(); //数据表变更通知
+    private final ThreadLocal<Set<String>> pendingChanges = new ThreadLocal<>(); //事务提交后才发出的变更通知
+    private Scheduler dbScheduler; //异步操作使用的数据库线程
+    private volatile Profiler profiler; //查询性能分析，默认关闭
+    private final SqlCache sqlCache = new SqlCache(DEFAULT_SQL_CACHE_SIZE); //SQL语句及预编译语句缓存
 
     private SQLiteUtils(Context context) {
         this.context = context;
@@ -78,27 +130,162 @@ public class SQLiteUtils {
 
     /**
      * 打开数据库
+     * <p>数据库连接按引用计数管理，每次open()需对应一次close()。</p>
      */
     public void open() {
-        if (databaseHelper == null || sqLiteDatabase == null) {
-            this.databaseHelper = new DatabaseHelper(context);
-            sqLiteDatabase = databaseHelper.getWritableDatabase();
-        }
+        acquire();
+        Integer opened = openCount.get();
+        openCount.set(opened == null ? 1 : opened + 1);
     }
 
     /**
      * 关闭数据库
+     * <p>关闭当前线程最近一次查询返回且尚未关闭的游标，同时释放当前线程一次open()的引用；
+     * 当前线程既无未关闭的游标也无open()引用时不做任何处理。
+     * 引用全部释放且未开启保持连接时才真正关闭数据库。</p>
      */
     public void close() {
+        Deque<QueryCursor> opened = cursors.get();
+        if (opened != null) {
+            while (!opened.isEmpty()) {
+                QueryCursor current = opened.pop();
+                if (!current.isReleased()) {
+                    current.close();
+                    break;
+                }
+            }
+            if (opened.isEmpty()) {
+                cursors.remove();
+            }
+        }
+        Integer count = openCount.get();
+        if (count != null) {
+            if (count > 1) {
+                openCount.set(count - 1);
+            } else {
+                openCount.remove();
+            }
+            release();
+        }
+    }
+
+    /**
+     * 立即关闭数据库，忽略引用计数
+     * <p>应在退出应用等不再访问数据库时调用。</p>
+     */
+    public void closeDatabase() {
+        synchronized (connectionLock) {
+            refCount = 0;
+            closeConnection();
+        }
+    }
+
+    /**
+     * 设置是否保持数据库连接
+     * <p>默认保持连接，避免频繁操作时反复打开数据库。关闭后每次引用全部释放时都会关闭数据库。</p>
+     *
+     * @param keepAlive 是否保持连接
+     */
+    public void setKeepAlive(boolean keepAlive) {
+        synchronized (connectionLock) {
+            this.keepAlive = keepAlive;
+            if (!keepAlive && refCount == 0) {
+                closeConnection();
+            }
+        }
+    }
+
+    /**
+     * 获取一次连接引用，必要时打开数据库
+     */
+    private SQLiteDatabase acquire() {
+        synchronized (connectionLock) {
+            if (databaseHelper == null || sqLiteDatabase == null || !sqLiteDatabase.isOpen()) {
+                sqlCache.clear();
+                this.databaseHelper = new DatabaseHelper(context);
+                sqLiteDatabase = databaseHelper.getWritableDatabase();
+                sqLiteDatabase.setMaxSqlCacheSize(sqlCache.maxSize);
+                if (writeAheadLogging) {
+                    sqLiteDatabase.enableWriteAheadLogging();
+                }
+            }
+            refCount++;
+            return sqLiteDatabase;
+        }
+    }
+
+    /**
+     * 获取一次连接引用用于写操作，并进入写操作串行锁
+     */
+    private SQLiteDatabase acquireWriter() {
+        SQLiteDatabase db = acquire();
+        writerLock.lock();
+        return db;
+    }
+
+    private void releaseWriter() {
+        writerLock.unlock();
+        release();
+    }
+
+    /**
+     * 开启WAL（预写日志）模式
+     * <p>写操作追加到日志文件，读操作不再被写操作阻塞。查询由系统的连接池分配只读连接，
+     * 列表页查询可以和后台同步写入同时进行；当前线程正在执行写事务时查询使用写连接，可以读到事务内未提交的数据。
+     * 设置会保留到数据库重新打开之后。</p>
+     */
+    public void enableWriteAheadLogging() {
+        writerLock.lock();
+        try {
+            synchronized (connectionLock) {
+                this.writeAheadLogging = true;
+                if (sqLiteDatabase != null) {
+                    sqLiteDatabase.enableWriteAheadLogging();
+                }
+            }
+        } finally {
+            writerLock.unlock();
+        }
+    }
+
+    /**
+     * 关闭WAL模式，使用中的只读连接由系统在查询结束后关闭
+     */
+    public void disableWriteAheadLogging() {
+        writerLock.lock();
+        try {
+            synchronized (connectionLock) {
+                this.writeAheadLogging = false;
+                if (sqLiteDatabase != null) {
+                    sqLiteDatabase.disableWriteAheadLogging();
+                }
+            }
+        } finally {
+            writerLock.unlock();
+        }
+    }
+
+    /**
+     * 释放一次连接引用
+     */
+    private void release() {
+        synchronized (connectionLock) {
+            if (refCount > 0) {
+                refCount--;
+            }
+            if (refCount == 0 && !keepAlive) {
+                closeConnection();
+            }
+        }
+    }
+
+    private void closeConnection() {
+        sqlCache.clear();
         if (null != databaseHelper) {
             databaseHelper.close();
             databaseHelper = null;
             sqLiteDatabase = null;
         }
-        if (null != cursor) {
-            cursor.close();
-            cursor = null;
-        }
     }
 
     /**
@@ -107,12 +294,11 @@ public class SQLiteUtils {
      * @param sql
      */
     public void executeSql(String sql) {
+        SQLiteDatabase db = acquireWriter();
         try {
-            open();
-            sqLiteDatabase.execSQL(sql);
-            close();
-        } catch (Exception e) {
-            throw e;
+            db.execSQL(sql);
+        } finally {
+            releaseWriter();
         }
     }
 
@@ -126,14 +312,285 @@ public class SQLiteUtils {
      * @throws Exception
      */
     public long insert(String tableName, String nullColumn, ContentValues contentValues) throws Exception {
+        SQLiteDatabase db = acquireWriter();
         try {
-            open();
-            return sqLiteDatabase.insert(tableName, nullColumn, contentValues);
-        } catch (Exception e) {
-            throw e;
+            long id = db.insert(tableName, nullColumn, contentValues);
+            if (id != -1) {
+                indexRows(db, findSQLTable(tableName), Collections.singletonList(id));
+            }
+            notifyTableChanged(db, tableName);
+            return id;
+        } finally {
+            releaseWriter();
+        }
+    }
+
+    /**
+     * 批量插入数据
+     * <p>使用预编译语句绑定参数，每 {@value #DEFAULT_BATCH_SIZE} 行提交一次事务。</p>
+     *
+     * @param tableName 表名
+     * @param rows      名值对集合
+     * @return 成功插入的行数
+     * @throws Exception
+     */
+    public int insertBatch(String tableName, List<ContentValues> rows) throws Exception {
+        return insertBatch(tableName, rows, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * 批量插入数据
+     * <p>使用预编译语句绑定参数，每batchSize行提交一次事务。某个事务出错时该事务回滚并抛出异常，之前已提交的事务不受影响。</p>
+     *
+     * @param tableName 表名
+     * @param rows      名值对集合
+     * @param batchSize 每个事务包含的行数
+     * @return 成功插入的行数
+     * @throws Exception
+     */
+    public int insertBatch(String tableName, List<ContentValues> rows, int batchSize) throws Exception {
+        return executeBatch("INSERT INTO ", tableName, rows, batchSize);
+    }
+
+    /**
+     * 批量插入或替换数据（INSERT OR REPLACE），主键或唯一约束冲突的行会被替换
+     *
+     * @param tableName 表名
+     * @param rows      名值对集合
+     * @return 成功写入的行数
+     * @throws Exception
+     */
+    public int upsertBatch(String tableName, List<ContentValues> rows) throws Exception {
+        return upsertBatch(tableName, rows, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * 批量插入或替换数据（INSERT OR REPLACE），主键或唯一约束冲突的行会被替换
+     *
+     * @param tableName 表名
+     * @param rows      名值对集合
+     * @param batchSize 每个事务包含的行数
+     * @return 成功写入的行数
+     * @throws Exception
+     */
+    public int upsertBatch(String tableName, List<ContentValues> rows, int batchSize) throws Exception {
+        return executeBatch("INSERT OR REPLACE INTO ", tableName, rows, batchSize);
+    }
+
+    /**
+     * 在一个事务中执行操作，操作正常返回时提交，抛出异常时回滚
+     * <p>操作中可以调用本类的其他方法，它们会加入同一个事务；数据表变更通知在事务提交后发出。</p>
+     *
+     * @param task 要执行的操作
+     * @return 操作的返回值
+     * @throws Exception 操作抛出的异常
+     */
+    public <T> T runInTransaction(Callable<T> task) throws Exception {
+        SQLiteDatabase db = acquireWriter();
+        try {
+            boolean successful = false;
+            db.beginTransaction();
+            try {
+                T result = task.call();
+                db.setTransactionSuccessful();
+                successful = true;
+                return result;
+            } finally {
+                db.endTransaction();
+                if (!db.inTransaction()) {
+                    dispatchTableChanges(successful);
+                }
+            }
+        } finally {
+            releaseWriter();
+        }
+    }
+
+    /**
+     * 分事务批量执行插入语句，列相同的行共用一条预编译语句
+     */
+    private int executeBatch(String verb, String tableName, List<ContentValues> rows, int batchSize) throws Exception {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        SQLiteDatabase db = acquireWriter();
+        SQLTable sqlTable = findSQLTable(tableName);
+        List<Long> rowIds = hasFullTextSearch(sqlTable) ? new ArrayList<Long>() : null;
+        Map<String, SQLiteStatement> statements = new HashMap<>();
+        int count = 0;
+        try {
+            // 被替换的行不会执行删除触发器，需要先删除其全文检索记录
+            List<String[]> uniqueKeys = rowIds != null && verb.contains("REPLACE") ? uniqueKeys(db, tableName) : null;
+            for (int from = 0; from < rows.size(); from += batchSize) {
+                int to = Math.min(from + batchSize, rows.size());
+                db.beginTransaction();
+                try {
+                    if (rowIds != null) {
+                        rowIds.clear();
+                    }
+                    for (int i = from; i < to; i++) {
+                        ContentValues row = rows.get(i);
+                        List<String> columns = new ArrayList<>(row.keySet());
+                        Collections.sort(columns);
+                        String shape = columns.toString();
+                        SQLiteStatement statement = statements.get(shape);
+                        if (statement == null) {
+                            statement = db.compileStatement(buildInsertSql(verb, tableName, columns));
+                            statements.put(shape, statement);
+                        }
+                        statement.clearBindings();
+                        for (int index = 0; index < columns.size(); index++) {
+                            DatabaseUtils.bindObjectToProgram(statement, index + 1, row.get(columns.get(index)));
+                        }
+                        if (uniqueKeys != null) {
+                            deleteReplacedFullText(db, sqlTable, uniqueKeys, row, statements);
+                        }
+                        long id = statement.executeInsert();
+                        if (id != -1) {
+                            if (rowIds != null) {
+                                rowIds.add(id);
+                            }
+                            count++;
+                        }
+                    }
+                    if (rowIds != null) {
+                        indexRows(db, sqlTable, rowIds);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+            return count;
+        } finally {
+            for (SQLiteStatement statement : statements.values()) {
+                statement.close();
+            }
+            if (count > 0) {
+                notifyTableChanged(db, tableName);
+            }
+            releaseWriter();
+        }
+    }
+
+    /**
+     * 查询表的主键和唯一索引列，不包括部分索引和表达式索引
+     */
+    private static List<String[]> uniqueKeys(SQLiteDatabase db, String tableName) {
+        List<String[]> keys = new ArrayList<>();
+        List<String> primaryKey = new ArrayList<>();
+        Cursor columns = db.rawQuery("PRAGMA table_info(" + tableName + ")", null);
+        try {
+            int name = columns.getColumnIndex("name");
+            int pk = columns.getColumnIndex("pk");
+            while (columns.moveToNext()) {
+                if (columns.getInt(pk) > 0) {
+                    primaryKey.add(columns.getString(name));
+                }
+            }
+        } finally {
+            columns.close();
+        }
+        if (primaryKey.size() == 1) {
+            // INTEGER PRIMARY KEY 是rowid的别名，不在 index_list 中
+            keys.add(new String[]{primaryKey.get(0)});
+        }
+        List<String> indexes = new ArrayList<>();
+        Cursor indexList = db.rawQuery("PRAGMA index_list(" + tableName + ")", null);
+        try {
+            int name = indexList.getColumnIndex("name");
+            int unique = indexList.getColumnIndex("unique");
+            int partial = indexList.getColumnIndex("partial");
+            while (indexList.moveToNext()) {
+                if (indexList.getInt(unique) == 1 && (partial < 0 || indexList.getInt(partial) == 0)) {
+                    indexes.add(indexList.getString(name));
+                }
+            }
         } finally {
-            close();
+            indexList.close();
+        }
+        for (String index : indexes) {
+            List<String> key = new ArrayList<>();
+            Cursor indexInfo = db.rawQuery("PRAGMA index_info(" + index + ")", null);
+            try {
+                int name = indexInfo.getColumnIndex("name");
+                while (indexInfo.moveToNext()) {
+                    key.add(indexInfo.getString(name));
+                }
+            } finally {
+                indexInfo.close();
+            }
+            if (!key.isEmpty() && !key.contains(null)) {
+                keys.add(key.toArray(new String[key.size()]));
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * 按唯一约束查找将被 INSERT OR REPLACE 替换的行，删除其全文检索记录
+     * <p>约束列未全部给出或含null值时不会发生冲突，跳过该约束。</p>
+     *
+     * @param statements 复用的预编译语句，由调用方关闭
+     */
+    private static void deleteReplacedFullText(SQLiteDatabase db, SQLTable sqlTable, List<String[]> uniqueKeys,
+                                               ContentValues row, Map<String, SQLiteStatement> statements) {
+        for (String[] key : uniqueKeys) {
+            boolean complete = true;
+            for (String column : key) {
+                if (row.get(column) == null) {
+                    complete = false;
+                    break;
+                }
+            }
+            if (!complete) {
+                continue;
+            }
+            String shape = "key|" + Arrays.toString(key);
+            SQLiteStatement lookup = statements.get(shape);
+            if (lookup == null) {
+                StringBuilder sql = new StringBuilder("SELECT rowid FROM ").append(sqlTable.getTableName()).append(" WHERE ");
+                for (int i = 0; i < key.length; i++) {
+                    sql.append(i > 0 ? " AND " : "").append(key[i]).append(" = ?");
+                }
+                lookup = db.compileStatement(sql.toString());
+                statements.put(shape, lookup);
+            }
+            lookup.clearBindings();
+            for (int i = 0; i < key.length; i++) {
+                DatabaseUtils.bindObjectToProgram(lookup, i + 1, row.get(key[i]));
+            }
+            long rowId;
+            try {
+                rowId = lookup.simpleQueryForLong();
+            } catch (SQLiteDoneException e) {
+                continue;
+            }
+            SQLiteStatement delete = statements.get("fts");
+            if (delete == null) {
+                delete = db.compileStatement("DELETE FROM " + sqlTable.getFullTextTableName() + " WHERE docid = ?");
+                statements.put("fts", delete);
+            }
+            delete.bindLong(1, rowId);
+            delete.executeUpdateDelete();
+        }
+    }
+
+    private static String buildInsertSql(String verb, String tableName, List<String> columns) {
+        StringBuilder sql = new StringBuilder(verb).append(tableName).append(" (");
+        StringBuilder bindings = new StringBuilder();
+        for (int i = 0; i < columns.size(); i++) {
+            if (i > 0) {
+                sql.append(',');
+                bindings.append(',');
+            }
+            sql.append(columns.get(i));
+            bindings.append('?');
         }
+        if (columns.isEmpty()) {
+            return sql.delete(sql.length() - 2, sql.length()).append(" DEFAULT VALUES").toString();
+        }
+        return sql.append(") VALUES (").append(bindings).append(')').toString();
     }
 
     /**
@@ -146,13 +603,29 @@ public class SQLiteUtils {
      * @throws Exception
      */
     public long delete(String tableName, String key, int id) throws Exception {
+        return delete(tableName, key + " = ?", new String[]{String.valueOf(id)});
+    }
+
+    /**
+     * 按条件删除数据，条件中的值使用 ? 占位，相同的条件共用一条预编译语句
+     *
+     * @param tableName   表名
+     * @param whereClause 删除条件 "id = ? and name = ?"
+     * @param whereArgs   条件中 ? 对应的值
+     * @return 受影响的记录数
+     * @throws Exception
+     */
+    public long delete(String tableName, String whereClause, String[] whereArgs) throws Exception {
+        SQLiteDatabase db = acquireWriter();
         try {
-            open();
-            return sqLiteDatabase.delete(tableName, key + " = " + id, null);
-        } catch (Exception e) {
-            throw e;
+            SQLiteStatement statement = sqlCache.getStatement(db, "DELETE FROM " + tableName + " WHERE " + whereClause);
+            statement.clearBindings();
+            bindStrings(statement, 1, whereArgs);
+            int count = statement.executeUpdateDelete();
+            notifyTableChanged(db, tableName);
+            return count;
         } finally {
-            close();
+            releaseWriter();
         }
     }
 
@@ -164,11 +637,11 @@ public class SQLiteUtils {
      * @throws Exception
      */
     public Cursor findBySQL(String sql, String[] selectionArgs) throws Exception {
+        SQLiteDatabase db = acquire();
         try {
-            open();
-            cursor = sqLiteDatabase.rawQuery(sql, selectionArgs);
-            return cursor;
+            return setCursor(rawQuery(db, sql, selectionArgs));
         } catch (Exception e) {
+            release();
             throw e;
         }
     }
@@ -182,11 +655,11 @@ public class SQLiteUtils {
      * @throws Exception
      */
     public Cursor findAll(String tableName, String[] columns) throws Exception {
+        SQLiteDatabase db = acquire();
         try {
-            open();
-            cursor = sqLiteDatabase.query(tableName, columns, null, null, null, null, null);
-            return cursor;
+            return setCursor(rawQuery(db, SQLiteQueryBuilder.buildQueryString(false, tableName, columns, null, null, null, null, null), null));
         } catch (Exception e) {
+            release();
             throw e;
         }
     }
@@ -202,11 +675,17 @@ public class SQLiteUtils {
      * @throws Exception
      */
     public Cursor findById(String tableName, String key, int id, String[] columns) throws Exception {
+        SQLiteDatabase db = acquire();
         try {
-            open();
-            cursor = sqLiteDatabase.query(tableName, columns, key + " = " + id, null, null, null, null);
-            return cursor;
+            String shape = "id|" + tableName + '|' + key + '|' + Arrays.toString(columns);
+            String sql = sqlCache.getSql(shape);
+            if (sql == null) {
+                sql = SQLiteQueryBuilder.buildQueryString(false, tableName, columns, key + " = ?", null, null, null, null);
+                sqlCache.putSql(shape, sql);
+            }
+            return setCursor(rawQuery(db, sql, new String[]{String.valueOf(id)}));
         } catch (Exception e) {
+            release();
             throw e;
         }
     }
@@ -221,11 +700,31 @@ public class SQLiteUtils {
      * @throws Exception
      */
     public Cursor findByCondition(String tableName, String condition, String[] columns) throws Exception {
+        return findByCondition(tableName, condition, null, columns);
+    }
+
+    /**
+     * 根据条件查找数据，条件中的值使用 ? 占位
+     *
+     * @param tableName     表名
+     * @param condition     查询条件 " id = ? and name = ? and ..."
+     * @param conditionArgs 条件中 ? 对应的值
+     * @param columns       要查询的列名，可以是多个，可以为null
+     * @return Cursor游标
+     * @throws Exception
+     */
+    public Cursor findByCondition(String tableName, String condition, String[] conditionArgs, String[] columns) throws Exception {
+        SQLiteDatabase db = acquire();
         try {
-            open();
-            cursor = sqLiteDatabase.query(tableName, columns, condition, null, null, null, null);
-            return cursor;
+            String shape = "condition|" + tableName + '|' + condition + '|' + Arrays.toString(columns);
+            String sql = sqlCache.getSql(shape);
+            if (sql == null) {
+                sql = SQLiteQueryBuilder.buildQueryString(false, tableName, columns, condition, null, null, null, null);
+                sqlCache.putSql(shape, sql);
+            }
+            return setCursor(rawQuery(db, sql, conditionArgs));
         } catch (Exception e) {
+            release();
             throw e;
         }
     }
@@ -244,21 +743,7 @@ public class SQLiteUtils {
      * @throws Exception
      */
     public Cursor findLinkAnd(String tableName, String[] names, String[] condition, String[] values, String[] columns, String orderColumn, String limit) throws Exception {
-        try {
-            open();
-            StringBuffer selection = new StringBuffer();
-            for (int i = 0; i < names.length; i++) {
-                selection.append(names[i]);
-                selection.append(condition[i] + " ?");
-                if (i != names.length - 1) {
-                    selection.append(" and ");
-                }
-            }
-            cursor = sqLiteDatabase.query(true, tableName, columns, selection.toString(), values, null, null, orderColumn, limit);
-            return cursor;
-        } catch (Exception e) {
-            throw e;
-        }
+        return findLink(" and ", tableName, names, condition, values, columns, orderColumn, limit);
     }
 
     /**
@@ -275,23 +760,139 @@ public class SQLiteUtils {
      * @throws Exception
      */
     public Cursor findLinkOr(String tableName, String[] names, String[] condition, String[] values, String[] columns, String orderColumn, String limit) throws Exception {
+        return findLink(" or ", tableName, names, condition, values, columns, orderColumn, limit);
+    }
+
+    /**
+     * 按多个条件查询数据，相同形式的查询只拼接一次SQL语句
+     */
+    private Cursor findLink(String joiner, String tableName, String[] names, String[] condition, String[] values, String[] columns, String orderColumn, String limit) throws Exception {
+        SQLiteDatabase db = acquire();
         try {
-            open();
-            StringBuffer selection = new StringBuffer();
-            for (int i = 0; i < names.length; i++) {
-                selection.append(names[i]);
-                selection.append(condition[i] + " ?");
-                if (i != names.length - 1) {
-                    selection.append(" or ");
+            String shape = "link|" + joiner + '|' + tableName + '|' + Arrays.toString(names) + Arrays.toString(condition)
+                    + Arrays.toString(columns) + '|' + orderColumn + '|' + limit;
+            String sql = sqlCache.getSql(shape);
+            if (sql == null) {
+                StringBuilder selection = new StringBuilder();
+                for (int i = 0; i < names.length; i++) {
+                    selection.append(names[i]);
+                    selection.append(condition[i]).append(" ?");
+                    if (i != names.length - 1) {
+                        selection.append(joiner);
+                    }
                 }
+                sql = SQLiteQueryBuilder.buildQueryString(true, tableName, columns, selection.toString(), null, null, orderColumn, limit);
+                sqlCache.putSql(shape, sql);
             }
-            cursor = sqLiteDatabase.query(true, tableName, columns, selection.toString(), values, null, null, orderColumn, limit);
-            return cursor;
+            return setCursor(rawQuery(db, sql, values));
         } catch (Exception e) {
+            release();
             throw e;
         }
     }
 
+    /**
+     * 查询并逐行转换为对象
+     * <p>游标在方法返回前关闭，不需要调用close()。</p>
+     *
+     * @param sql           查询SQL语句
+     * @param selectionArgs 查询条件值
+     * @param mapper        行转换器
+     * @return 对象集合
+     * @throws Exception
+     */
+    public <T> List<T> query(String sql, String[] selectionArgs, RowMapper<T> mapper) throws Exception {
+        SQLiteDatabase db = acquire();
+        Cursor rows = null;
+        try {
+            rows = rawQuery(db, sql, selectionArgs);
+            List<T> result = new ArrayList<>(rows.getCount());
+            while (rows.moveToNext()) {
+                result.add(mapper.mapRow(rows));
+            }
+            return result;
+        } finally {
+            if (rows != null) {
+                rows.close();
+            }
+            release();
+        }
+    }
+
+    /**
+     * 按主键分页遍历表中的数据
+     * <p>每页使用 {@code key > 上一页最后一行的key} 的条件重新查询，而不是OFFSET，翻页开销不随页数增加；
+     * 每页的游标读完立即关闭，每页的对象放入同一个复用的集合中交给回调，遍历大表时内存占用固定。</p>
+     *
+     * @param tableName     表名
+     * @param keyColumn     分页使用的主键列，需唯一且有索引
+     * @param columns       要查询的列名，可以为null，不包含keyColumn时自动加入
+     * @param condition     查询条件，值使用 ? 占位，可以为null
+     * @param conditionArgs 条件中 ? 对应的值
+     * @param pageSize      每页行数
+     * @param mapper        行转换器
+     * @param callback      每页的回调，返回false时停止遍历
+     * @return 遍历的行数
+     * @throws Exception
+     */
+    public <T> int scan(String tableName, String keyColumn, String[] columns, String condition, String[] conditionArgs,
+                        int pageSize, RowMapper<T> mapper, PageCallback<T> callback) throws Exception {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize must be positive");
+        }
+        if (columns != null && !Arrays.asList(columns).contains(keyColumn)) {
+            columns = Arrays.copyOf(columns, columns.length + 1);
+            columns[columns.length - 1] = keyColumn;
+        }
+        String firstSql = scanSql(tableName, keyColumn, columns, condition, pageSize, true);
+        String nextSql = scanSql(tableName, keyColumn, columns, condition, pageSize, false);
+        int argCount = conditionArgs == null ? 0 : conditionArgs.length;
+        String[] args = new String[argCount + 1];
+        if (argCount > 0) {
+            System.arraycopy(conditionArgs, 0, args, 0, argCount);
+        }
+        List<T> page = new ArrayList<>(pageSize);
+        String lastKey = null;
+        int count = 0;
+        while (true) {
+            args[argCount] = lastKey;
+            page.clear();
+            SQLiteDatabase db = acquire();
+            Cursor rows = null;
+            try {
+                rows = lastKey == null ? rawQuery(db, firstSql, conditionArgs) : rawQuery(db, nextSql, args);
+                int keyIndex = rows.getColumnIndexOrThrow(keyColumn);
+                while (rows.moveToNext()) {
+                    page.add(mapper.mapRow(rows));
+                    lastKey = rows.getString(keyIndex);
+                }
+            } finally {
+                if (rows != null) {
+                    rows.close();
+                }
+                release();
+            }
+            count += page.size();
+            if (page.isEmpty() || !callback.onPage(page) || page.size() < pageSize) {
+                return count;
+            }
+        }
+    }
+
+    /**
+     * 生成分页遍历的SQL，第一页没有上一页的key
+     */
+    private String scanSql(String tableName, String keyColumn, String[] columns, String condition, int pageSize, boolean first) {
+        String shape = "scan|" + first + '|' + tableName + '|' + keyColumn + '|' + Arrays.toString(columns) + '|' + condition + '|' + pageSize;
+        String sql = sqlCache.getSql(shape);
+        if (sql == null) {
+            String where = (condition == null ? "" : "(" + condition + ") and ") + keyColumn + (first ? " IS NOT NULL" : " > ?");
+            sql = SQLiteQueryBuilder.buildQueryString(false, tableName, columns, where, null, null, keyColumn, String.valueOf(pageSize));
+            sqlCache.putSql(shape, sql);
+        }
+        return sql;
+    }
+
     /**
      * @param tableName 表名
      * @param names     查询条件
@@ -301,50 +902,891 @@ public class SQLiteUtils {
      * @throws Exception
      */
     public boolean udpate(String tableName, String[] names, String[] values, ContentValues args) throws Exception {
+        SQLiteDatabase db = acquireWriter();
         try {
-            open();
-            StringBuffer selection = new StringBuffer();
+            List<String> columns = new ArrayList<>(args.keySet());
+            Collections.sort(columns);
+            StringBuilder sql = new StringBuilder("UPDATE ").append(tableName).append(" SET ");
+            for (int i = 0; i < columns.size(); i++) {
+                if (i > 0) {
+                    sql.append(',');
+                }
+                sql.append(columns.get(i)).append(" = ?");
+            }
+            StringBuilder selection = new StringBuilder();
             for (int i = 0; i < names.length; i++) {
                 selection.append(names[i]);
                 selection.append(" = ?");
                 if (i != names.length - 1) {
-                    selection.append("and");
+                    selection.append(" and ");
                 }
             }
-            return sqLiteDatabase.update(tableName, args, selection.toString(), values) > 0;
-        } catch (Exception e) {
-            throw e;
+            sql.append(" WHERE ").append(selection);
+            SQLTable sqlTable = findSQLTable(tableName);
+            // 全文检索列被更新时，先记下受影响的行，更新后重新生成检索内容
+            List<Long> indexedRows = updatesFullText(sqlTable, columns)
+                    ? queryRowIds(db, tableName, selection.toString(), values) : null;
+            SQLiteStatement statement = sqlCache.getStatement(db, sql.toString());
+            statement.clearBindings();
+            for (int i = 0; i < columns.size(); i++) {
+                DatabaseUtils.bindObjectToProgram(statement, i + 1, args.get(columns.get(i)));
+            }
+            bindStrings(statement, columns.size() + 1, values);
+            int count = statement.executeUpdateDelete();
+            if (indexedRows != null) {
+                indexRows(db, sqlTable, indexedRows);
+            }
+            notifyTableChanged(db, tableName);
+            return count > 0;
         } finally {
-            close();
+            releaseWriter();
         }
     }
 
-    public List<SQLTable> getSqLiteTables() {
-        return sqLiteTables;
-    }
-
-    public void setSqLiteTables(List<SQLTable> sqLiteTables) {
-        this.sqLiteTables = sqLiteTables;
-    }
-
-    public SQLiteDatabase getSqLiteDatabase() {
-        return sqLiteDatabase;
-    }
-
-    public DatabaseHelper getDatabaseHelper() {
-        return databaseHelper;
-    }
+    ///////////////////////////////////////////////////////////////////////////
+    // 全文检索
+    ///////////////////////////////////////////////////////////////////////////
 
     /**
-     * SQLiteOpenHelper内部类
+     * 全文检索，按相关度从高到低返回数据表中的记录
+     * <p>数据表需通过 {@link SQLTable#setFullTextColumns(String...)} 设置全文检索列。
+     * 检索表达式中连续的汉字按任意位置的子串匹配，如“压器”可以检索到“变压器故障”。
+     * 相关度按各检索词在每列中的命中次数占该列总命中次数的比例累加计算。</p>
+     *
+     * @param tableName 表名
+     * @param query     检索表达式，使用FTS4的MATCH语法，如 "变压器 故障"、"检修 OR 巡检"、"zs*"
+     * @param limit     最多返回的记录数
+     * @return Cursor游标
+     * @throws Exception
      */
-    private class DatabaseHelper extends SQLiteOpenHelper {
-
-        DatabaseHelper(Context context) {
-            //当调用getWritableDatabase()或 getReadableDatabase()方法时,创建一个数据库
-            super(context, DB_NAME, null, DB_VERSION);
+    public Cursor search(String tableName, String query, int limit) throws Exception {
+        SQLTable sqlTable = findSQLTable(tableName);
+        if (sqlTable == null || !sqlTable.hasFullTextSearch()) {
+            throw new IllegalArgumentException(tableName + " has no full text columns");
         }
-
+        SQLiteDatabase db = acquire();
+        try {
+            // 小顶堆保留相关度最高的limit条记录
+            PriorityQueue<double[]> top = new PriorityQueue<>(Math.max(1, limit), new Comparator<double[]>() {
+                @Override
+                public int compare(double[] lhs, double[] rhs) {
+                    return Double.compare(lhs[0], rhs[0]);
+                }
+            });
+            Cursor matches = rawQuery(db, "SELECT docid, matchinfo(" + sqlTable.getFullTextTableName() + ", 'pcx') FROM "
+                    + sqlTable.getFullTextTableName() + " WHERE " + sqlTable.getFullTextTableName() + " MATCH ?",
+                    new String[]{toMatchQuery(query)});
+            try {
+                while (matches.moveToNext()) {
+                    double score = rank(matches.getBlob(1));
+                    if (top.size() < limit) {
+                        top.add(new double[]{score, matches.getLong(0)});
+                    } else if (limit > 0 && score > top.peek()[0]) {
+                        top.poll();
+                        top.add(new double[]{score, matches.getLong(0)});
+                    }
+                }
+            } finally {
+                matches.close();
+            }
+            List<double[]> ranked = new ArrayList<>(top);
+            Collections.sort(ranked, Collections.reverseOrder(top.comparator()));
+            StringBuilder ids = new StringBuilder();
+            StringBuilder order = new StringBuilder(" ORDER BY CASE rowid");
+            for (int i = 0; i < ranked.size(); i++) {
+                long id = (long) ranked.get(i)[1];
+                ids.append(i > 0 ? "," : "").append(id);
+                order.append(" WHEN ").append(id).append(" THEN ").append(i);
+            }
+            order.append(" END");
+            String sql = "SELECT * FROM " + tableName + " WHERE rowid IN (" + ids + ")" + (ranked.isEmpty() ? "" : order);
+            return setCursor(rawQuery(db, sql, null));
+        } catch (Exception e) {
+            release();
+            throw e;
+        }
+    }
+
+    /**
+     * 重建全文检索表，包括拼音首字母
+     * <p>绕过 SQLiteUtils 插入或更新了全文检索列的数据后调用。</p>
+     *
+     * @param tableName 表名
+     * @throws Exception
+     */
+    public void rebuildFullTextIndex(final String tableName) throws Exception {
+        final SQLTable sqlTable = findSQLTable(tableName);
+        if (sqlTable == null || !sqlTable.hasFullTextSearch()) {
+            throw new IllegalArgumentException(tableName + " has no full text columns");
+        }
+        runInTransaction(new Callable<Void>() {
+            @Override
+            public Void call() {
+                populateFullTextIndex(sqLiteDatabase, sqlTable);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * 按 matchinfo(fts, 'pcx') 计算相关度
+     */
+    private static double rank(byte[] matchInfo) {
+        IntBuffer info = ByteBuffer.wrap(matchInfo).order(ByteOrder.nativeOrder()).asIntBuffer();
+        int phraseCount = info.get(0);
+        int columnCount = info.get(1);
+        double score = 0;
+        for (int phrase = 0; phrase < phraseCount; phrase++) {
+            for (int column = 0; column < columnCount; column++) {
+                int offset = 2 + 3 * (phrase * columnCount + column);
+                int hitsThisRow = info.get(offset);
+                int hitsAllRows = info.get(offset + 1);
+                if (hitsThisRow > 0) {
+                    score += (double) hitsThisRow / hitsAllRows;
+                }
+            }
+        }
+        return score;
+    }
+
+    private SQLTable findSQLTable(String tableName) {
+        for (SQLTable sqlTable : sqLiteTables) {
+            if (tableName.equals(sqlTable.getTableName())) {
+                return sqlTable;
+            }
+        }
+        return null;
+    }
+
+    private static boolean hasFullTextSearch(SQLTable sqlTable) {
+        return sqlTable != null && sqlTable.hasFullTextSearch();
+    }
+
+    private static boolean updatesFullText(SQLTable sqlTable, List<String> columns) {
+        if (!hasFullTextSearch(sqlTable)) {
+            return false;
+        }
+        for (String column : sqlTable.getFullTextColumns()) {
+            if (columns.contains(column)) {
+                return true;
+            }
+        }
+        for (String column : sqlTable.getPinyinColumns()) {
+            if (columns.contains(column)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 从数据表读取指定行，切分后写入全文检索表，rowIds为null时处理所有行
+     */
+    private static void indexRows(SQLiteDatabase db, SQLTable sqlTable, List<Long> rowIds) {
+        if (!hasFullTextSearch(sqlTable) || (rowIds != null && rowIds.isEmpty())) {
+            return;
+        }
+        String[] textColumns = sqlTable.getFullTextColumns();
+        String[] pinyinColumns = sqlTable.getPinyinColumns();
+        StringBuilder select = new StringBuilder("SELECT rowid");
+        StringBuilder insert = new StringBuilder("INSERT INTO ").append(sqlTable.getFullTextTableName()).append("(docid");
+        StringBuilder bindings = new StringBuilder("?");
+        for (String column : textColumns) {
+            select.append(", ").append(column);
+            insert.append(", ").append(column);
+            bindings.append(", ?");
+        }
+        for (String column : pinyinColumns) {
+            select.append(", ").append(column);
+        }
+        if (pinyinColumns.length > 0) {
+            insert.append(", ").append(SQLTable.PINYIN_COLUMN);
+            bindings.append(", ?");
+        }
+        select.append(" FROM ").append(sqlTable.getTableName());
+        if (rowIds != null) {
+            select.append(" WHERE rowid IN (");
+            for (int i = 0; i < rowIds.size(); i++) {
+                select.append(i > 0 ? "," : "").append(rowIds.get(i));
+            }
+            select.append(')');
+        }
+        insert.append(") VALUES (").append(bindings).append(')');
+        SQLiteStatement delete = db.compileStatement("DELETE FROM " + sqlTable.getFullTextTableName() + " WHERE docid = ?");
+        SQLiteStatement statement = db.compileStatement(insert.toString());
+        Cursor rows = db.rawQuery(select.toString(), null);
+        try {
+            String[] texts = new String[pinyinColumns.length];
+            while (rows.moveToNext()) {
+                long rowId = rows.getLong(0);
+                delete.bindLong(1, rowId);
+                delete.executeUpdateDelete();
+                statement.clearBindings();
+                statement.bindLong(1, rowId);
+                for (int i = 0; i < textColumns.length; i++) {
+                    String text = segment(rows.getString(i + 1));
+                    if (text != null) {
+                        statement.bindString(i + 2, text);
+                    }
+                }
+                if (pinyinColumns.length > 0) {
+                    for (int i = 0; i < texts.length; i++) {
+                        texts[i] = rows.getString(textColumns.length + 1 + i);
+                    }
+                    statement.bindString(textColumns.length + 2, pinyinInitials(texts));
+                }
+                statement.executeInsert();
+            }
+        } finally {
+            rows.close();
+            delete.close();
+            statement.close();
+        }
+    }
+
+    /**
+     * 将文本中连续的汉字切分为相邻两字一组的检索词，并单独保留最后一个字，如“变压器”切分为“变压 压器 器”；
+     * 其他非字母数字的字符替换为空格。FTS4自带的分词器会把连续的汉字作为一个词，切分后才能检索其中的词语
+     */
+    private static String segment(String text) {
+        if (text == null) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder(text.length() * 3);
+        int runStart = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (isHan(c)) {
+                if (runStart < 0) {
+                    runStart = i;
+                }
+                continue;
+            }
+            if (runStart >= 0) {
+                appendBigrams(sb, text, runStart, i, true);
+                runStart = -1;
+            }
+            if (i < text.length()) {
+                sb.append(Character.isLetterOrDigit(c) ? c : ' ');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 将检索表达式中连续的汉字转换为相邻两字组成的短语，如“变压器”转换为 "变压 压器"，单个汉字转换为前缀检索；
+     * 其他字符及FTS4的检索语法保持不变
+     */
+    private static String toMatchQuery(String query) {
+        StringBuilder sb = new StringBuilder(query.length() * 3);
+        boolean quoted = false;
+        int runStart = -1;
+        for (int i = 0; i <= query.length(); i++) {
+            char c = i < query.length() ? query.charAt(i) : ' ';
+            if (isHan(c)) {
+                if (runStart < 0) {
+                    runStart = i;
+                }
+                continue;
+            }
+            if (runStart >= 0) {
+                if (quoted) {
+                    appendBigrams(sb, query, runStart, i, false);
+                } else if (i - runStart == 1) {
+                    sb.append(' ').append(query.charAt(runStart)).append("* ");
+                } else {
+                    sb.append(" \"");
+                    appendBigrams(sb, query, runStart, i, false);
+                    sb.append("\" ");
+                }
+                runStart = -1;
+                // 汉字已按子串匹配，忽略其后的前缀符号
+                if (c == '*') {
+                    continue;
+                }
+            }
+            if (c == '"') {
+                quoted = !quoted;
+            }
+            if (i < query.length()) {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void appendBigrams(StringBuilder sb, String text, int start, int end, boolean lastChar) {
+        sb.append(' ');
+        for (int i = start; i < end - 1; i++) {
+            sb.append(text, i, i + 2).append(' ');
+        }
+        if (lastChar || end - start == 1) {
+            sb.append(text.charAt(end - 1)).append(' ');
+        }
+    }
+
+    private static boolean isHan(char c) {
+        return (c >= 0x4E00 && c <= 0x9FFF) || (c >= 0x3400 && c <= 0x4DBF) || (c >= 0xF900 && c <= 0xFAFF);
+    }
+
+    /**
+     * 各列的拼音首字母，以空格分隔作为不同的检索词
+     */
+    private static String pinyinInitials(String[] texts) {
+        StringBuilder initials = new StringBuilder();
+        for (String text : texts) {
+            String letters = PinyinUtils.getPinyinFirstLetters(text);
+            if (letters != null) {
+                if (initials.length() > 0) {
+                    initials.append(' ');
+                }
+                initials.append(letters.toLowerCase());
+            }
+        }
+        return initials.toString();
+    }
+
+    private static List<Long> queryRowIds(SQLiteDatabase db, String tableName, String selection, String[] selectionArgs) {
+        List<Long> rowIds = new ArrayList<>();
+        Cursor rows = db.rawQuery("SELECT rowid FROM " + tableName + " WHERE " + selection, selectionArgs);
+        try {
+            while (rows.moveToNext()) {
+                rowIds.add(rows.getLong(0));
+            }
+        } finally {
+            rows.close();
+        }
+        return rowIds;
+    }
+
+    /**
+     * 根据数据表重新填充全文检索表
+     */
+    private static void populateFullTextIndex(SQLiteDatabase db, SQLTable sqlTable) {
+        db.execSQL("DELETE FROM " + sqlTable.getFullTextTableName());
+        indexRows(db, sqlTable, null);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // 异步操作
+    ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * 在数据库线程上查询并逐行转换为对象
+     *
+     * @param sql           查询SQL语句
+     * @param selectionArgs 查询条件值
+     * @param mapper        行转换器
+     * @return 查询结果
+     */
+    public <T> Single<List<T>> queryAsync(final String sql, final String[] selectionArgs, final RowMapper<T> mapper) {
+        return Single.fromCallable(new Callable<List<T>>() {
+            @Override
+            public List<T> call() throws Exception {
+                return query(sql, selectionArgs, mapper);
+            }
+        }).subscribeOn(getDbScheduler());
+    }
+
+    /**
+     * 在数据库线程上插入数据
+     *
+     * @param tableName     表名
+     * @param nullColumn    null
+     * @param contentValues 名值对
+     * @return 新插入数据的ID，错误返回-1
+     */
+    public Single<Long> insertAsync(final String tableName, final String nullColumn, final ContentValues contentValues) {
+        return Single.fromCallable(new Callable<Long>() {
+            @Override
+            public Long call() throws Exception {
+                return insert(tableName, nullColumn, contentValues);
+            }
+        }).subscribeOn(getDbScheduler());
+    }
+
+    /**
+     * 在数据库线程上批量插入数据
+     *
+     * @param tableName 表名
+     * @param rows      名值对集合
+     * @return 成功插入的行数
+     */
+    public Single<Integer> insertBatchAsync(final String tableName, final List<ContentValues> rows) {
+        return Single.fromCallable(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return insertBatch(tableName, rows);
+            }
+        }).subscribeOn(getDbScheduler());
+    }
+
+    /**
+     * 在数据库线程上以事务执行操作
+     *
+     * @param task 要执行的操作，返回值不能为null
+     * @return 操作的返回值
+     */
+    public <T> Single<T> runInTransactionAsync(final Callable<T> task) {
+        return Single.fromCallable(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                return runInTransaction(task);
+            }
+        }).subscribeOn(getDbScheduler());
+    }
+
+    /**
+     * 监听查询
+     * <p>订阅时在数据库线程上查询一次，之后每当通过本类写入tables中的任一张表时重新查询并发出结果。
+     * 查询期间的多次变更合并为一次重新查询，下游处理不过来时只保留最新的结果。</p>
+     *
+     * @param tables        监听的表名
+     * @param sql           查询SQL语句
+     * @param selectionArgs 查询条件值
+     * @param mapper        行转换器
+     * @return 查询结果流
+     */
+    public <T> Flowable<List<T>> observeQuery(String[] tables, final String sql, final String[] selectionArgs, final RowMapper<T> mapper) {
+        final List<String> observedTables = Arrays.asList(tables);
+        return tableChanges
+                .filter(new Predicate<String>() {
+                    @Override
+                    public boolean test(String table) {
+                        return observedTables.contains(table);
+                    }
+                })
+                .startWith(INITIAL_QUERY)
+                .onBackpressureLatest()
+                .observeOn(getDbScheduler(), false, 1)
+                .map(new Function<String, List<T>>() {
+                    @Override
+                    public List<T> apply(String table) throws Exception {
+                        return query(sql, selectionArgs, mapper);
+                    }
+                })
+                .onBackpressureLatest();
+    }
+
+    /**
+     * 通知数据表已变更，触发监听该表的查询重新查询
+     * <p>通过 {@link #executeSql(String)}、{@link #getSqLiteDatabase()} 等方式修改数据时需手动调用。</p>
+     *
+     * @param tableName 表名
+     */
+    public void notifyTableChanged(String tableName) {
+        tableChanges.onNext(tableName);
+    }
+
+    /**
+     * 写操作后通知数据表变更，事务中的变更延迟到事务提交后通知
+     */
+    private void notifyTableChanged(SQLiteDatabase db, String tableName) {
+        if (!db.inTransaction()) {
+            notifyTableChanged(tableName);
+            return;
+        }
+        Set<String> tables = pendingChanges.get();
+        if (tables == null) {
+            tables = new LinkedHashSet<>();
+            pendingChanges.set(tables);
+        }
+        tables.add(tableName);
+    }
+
+    private void dispatchTableChanges(boolean committed) {
+        Set<String> tables = pendingChanges.get();
+        if (tables == null) {
+            return;
+        }
+        pendingChanges.remove();
+        if (committed) {
+            for (String table : tables) {
+                notifyTableChanged(table);
+            }
+        }
+    }
+
+    private synchronized Scheduler getDbScheduler() {
+        if (dbScheduler == null) {
+            dbScheduler = Schedulers.from(Executors.newFixedThreadPool(DB_THREAD_COUNT));
+        }
+        return dbScheduler;
+    }
+
+    /**
+     * 开启查询性能分析
+     * <p>按SQL语句统计查询耗时；耗时超过阈值的查询会执行 EXPLAIN QUERY PLAN，
+     * 并检查是否存在全表扫描，结果输出到日志并回调给listener。分析会立即执行查询，只应在调试时开启。</p>
+     *
+     * @param thresholdMillis 慢查询阈值，单位：毫秒
+     * @param listener        慢查询回调，在执行查询的线程上调用，可以为null
+     */
+    public void enableProfiler(long thresholdMillis, SlowQueryListener listener) {
+        profiler = new Profiler(thresholdMillis, listener);
+    }
+
+    /**
+     * 关闭查询性能分析
+     */
+    public void disableProfiler() {
+        profiler = null;
+    }
+
+    /**
+     * 获取各SQL语句的查询耗时统计，未开启查询性能分析时返回空集合
+     *
+     * @return SQL语句 - 耗时统计
+     */
+    public Map<String, QueryStats> getQueryStats() {
+        Profiler current = profiler;
+        if (current == null) {
+            return Collections.emptyMap();
+        }
+        synchronized (current.stats) {
+            return new HashMap<>(current.stats);
+        }
+    }
+
+    /**
+     * 执行查询，开启性能分析时统计耗时
+     */
+    private Cursor rawQuery(SQLiteDatabase db, String sql, String[] selectionArgs) {
+        Profiler current = profiler;
+        if (current == null) {
+            return db.rawQuery(sql, selectionArgs);
+        }
+        long start = System.nanoTime();
+        Cursor result = db.rawQuery(sql, selectionArgs);
+        // 游标在首次读取时才真正执行查询
+        result.getCount();
+        current.record(db, sql, selectionArgs, System.nanoTime() - start);
+        return result;
+    }
+
+    /**
+     * 设置缓存的SQL语句数，同时设置数据库连接的预编译语句缓存大小
+     *
+     * @param cacheSize 缓存的语句数，不能超过 {@link SQLiteDatabase#MAX_SQL_CACHE_SIZE}
+     */
+    public void setMaxSqlCacheSize(int cacheSize) {
+        writerLock.lock();
+        try {
+            synchronized (connectionLock) {
+                sqlCache.resize(cacheSize);
+                if (sqLiteDatabase != null) {
+                    sqLiteDatabase.setMaxSqlCacheSize(cacheSize);
+                }
+            }
+        } finally {
+            writerLock.unlock();
+        }
+    }
+
+    /**
+     * 获取SQL语句缓存命中次数
+     */
+    public long getSqlCacheHitCount() {
+        return sqlCache.hitCount.get();
+    }
+
+    /**
+     * 获取SQL语句缓存未命中次数
+     */
+    public long getSqlCacheMissCount() {
+        return sqlCache.missCount.get();
+    }
+
+    /**
+     * 记录当前线程的查询游标，游标持有查询时获取的连接引用
+     * <p>返回的游标关闭时释放该引用，同一线程嵌套查询时之前的游标保持可用。</p>
+     */
+    private Cursor setCursor(Cursor current) {
+        QueryCursor queryCursor = new QueryCursor(current);
+        Deque<QueryCursor> opened = cursors.get();
+        if (opened == null) {
+            opened = new ArrayDeque<>();
+            cursors.set(opened);
+        }
+        Iterator<QueryCursor> iterator = opened.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isReleased()) {
+                iterator.remove();
+            }
+        }
+        opened.push(queryCursor);
+        return queryCursor;
+    }
+
+    private static void bindStrings(SQLiteStatement statement, int start, String[] args) {
+        if (args == null) {
+            return;
+        }
+        for (int i = 0; i < args.length; i++) {
+            if (args[i] == null) {
+                statement.bindNull(start + i);
+            } else {
+                statement.bindString(start + i, args[i]);
+            }
+        }
+    }
+
+    public List<SQLTable> getSqLiteTables() {
+        return sqLiteTables;
+    }
+
+    public void setSqLiteTables(List<SQLTable> sqLiteTables) {
+        this.sqLiteTables = sqLiteTables;
+    }
+
+    public SQLiteDatabase getSqLiteDatabase() {
+        return sqLiteDatabase;
+    }
+
+    public DatabaseHelper getDatabaseHelper() {
+        return databaseHelper;
+    }
+
+    /**
+     * 行转换器，将游标当前行转换为对象
+     */
+    public interface RowMapper<T> {
+        T mapRow(Cursor cursor);
+    }
+
+    /**
+     * 分页遍历回调
+     */
+    public interface PageCallback<T> {
+        /**
+         * @param rows 当前页的对象，集合在下一页复用，需要保留的对象应自行复制
+         * @return 是否继续遍历
+         */
+        boolean onPage(List<T> rows);
+    }
+
+    /**
+     * 慢查询回调
+     */
+    public interface SlowQueryListener {
+        /**
+         * @param sql      SQL语句
+         * @param millis   耗时，单位：毫秒
+         * @param plan     EXPLAIN QUERY PLAN 的结果
+         * @param fullScan 是否存在未使用索引的全表扫描
+         */
+        void onSlowQuery(String sql, long millis, List<String> plan, boolean fullScan);
+    }
+
+    /**
+     * 查询耗时统计
+     */
+    public static final class QueryStats {
+        private int count;
+        private long totalNanos;
+        private long maxNanos;
+
+        private QueryStats() {
+        }
+
+        private QueryStats(QueryStats other) {
+            this.count = other.count;
+            this.totalNanos = other.totalNanos;
+            this.maxNanos = other.maxNanos;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public long getTotalMillis() {
+            return totalNanos / 1000000;
+        }
+
+        public long getAverageMillis() {
+            return count == 0 ? 0 : totalNanos / count / 1000000;
+        }
+
+        public long getMaxMillis() {
+            return maxNanos / 1000000;
+        }
+
+        @Override
+        public String toString() {
+            return "count: " + count + ", avg: " + getAverageMillis() + "ms, max: " + getMaxMillis() + "ms";
+        }
+    }
+
+    /**
+     * 查询性能分析
+     */
+    /**
+     * 查询返回的游标，关闭时释放查询获取的连接引用
+     */
+    private class QueryCursor extends CursorWrapper {
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        QueryCursor(Cursor cursor) {
+            super(cursor);
+        }
+
+        boolean isReleased() {
+            return released.get();
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                super.close();
+                release();
+            }
+        }
+    }
+
+    private static class Profiler {
+        private final long thresholdNanos;
+        private final SlowQueryListener listener;
+        private final Map<String, QueryStats> stats = new HashMap<>();
+
+        Profiler(long thresholdMillis, SlowQueryListener listener) {
+            this.thresholdNanos = thresholdMillis * 1000000;
+            this.listener = listener;
+        }
+
+        void record(SQLiteDatabase db, String sql, String[] selectionArgs, long nanos) {
+            synchronized (stats) {
+                QueryStats queryStats = stats.get(sql);
+                if (queryStats == null) {
+                    queryStats = new QueryStats();
+                }
+                // 每次替换为新对象，getQueryStats()返回的快照不会再被修改
+                queryStats = new QueryStats(queryStats);
+                queryStats.count++;
+                queryStats.totalNanos += nanos;
+                queryStats.maxNanos = Math.max(queryStats.maxNanos, nanos);
+                stats.put(sql, queryStats);
+            }
+            if (nanos >= thresholdNanos) {
+                explain(db, sql, selectionArgs, nanos / 1000000);
+            }
+        }
+
+        private void explain(SQLiteDatabase db, String sql, String[] selectionArgs, long millis) {
+            List<String> plan = new ArrayList<>();
+            boolean fullScan = false;
+            Cursor result = db.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+            try {
+                int detailIndex = result.getColumnIndex("detail");
+                while (result.moveToNext()) {
+                    String detail = result.getString(detailIndex);
+                    plan.add(detail);
+                    if (isFullScan(detail)) {
+                        fullScan = true;
+                    }
+                }
+            } finally {
+                result.close();
+            }
+            LogUtils.w("SQLiteUtils", "slow query " + millis + "ms" + (fullScan ? " (full table scan)" : "") + ": " + sql
+                    + "\n" + plan);
+            if (listener != null) {
+                listener.onSlowQuery(sql, millis, plan, fullScan);
+            }
+        }
+
+        /**
+         * 判断查询计划中的一步是否为不使用索引的全表扫描，如 "SCAN TABLE db_user" 或 "SCAN db_user"
+         */
+        private static boolean isFullScan(String detail) {
+            return detail != null && detail.startsWith("SCAN ") && !detail.contains(" INDEX ")
+                    && !detail.contains("INTEGER PRIMARY KEY") && !detail.startsWith("SCAN SUBQUERY");
+        }
+    }
+
+    /**
+     * SQL语句缓存
+     * <p>按语句形式缓存拼接好的查询SQL，以及增删改使用的预编译语句，两者分开存放。
+     * 查询SQL由缓存锁保护，锁内只做查找和放入。预编译语句属于当前数据库连接，只在持有写操作串行锁时
+     * 获取、绑定参数和执行，连接关闭时清空；查询线程不会访问预编译语句，也不会因淘汰SQL而关闭使用中的语句。</p>
+     */
+    private static class SqlCache {
+        private final AtomicLong hitCount = new AtomicLong();
+        private final AtomicLong missCount = new AtomicLong();
+        private LruCache<String, String> sqls;
+        private LruCache<String, SQLiteStatement> statements; //由写操作串行锁保护
+        private int maxSize;
+
+        SqlCache(int maxSize) {
+            resize(maxSize);
+        }
+
+        /**
+         * 调整缓存大小，调用方需持有写操作串行锁
+         */
+        synchronized void resize(int maxSize) {
+            if (maxSize <= 0 || maxSize > SQLiteDatabase.MAX_SQL_CACHE_SIZE) {
+                throw new IllegalArgumentException("expected value between 1 and " + SQLiteDatabase.MAX_SQL_CACHE_SIZE);
+            }
+            if (statements != null) {
+                statements.evictAll();
+            }
+            this.maxSize = maxSize;
+            sqls = new LruCache<>(maxSize);
+            statements = new LruCache<String, SQLiteStatement>(maxSize) {
+                @Override
+                protected void entryRemoved(boolean evicted, String key, SQLiteStatement oldValue, SQLiteStatement newValue) {
+                    oldValue.close();
+                }
+            };
+        }
+
+        synchronized String getSql(String shape) {
+            String sql = sqls.get(shape);
+            if (sql == null) {
+                missCount.incrementAndGet();
+            } else {
+                hitCount.incrementAndGet();
+            }
+            return sql;
+        }
+
+        synchronized void putSql(String shape, String sql) {
+            sqls.put(shape, sql);
+        }
+
+        /**
+         * 获取预编译语句，未缓存时编译并加入缓存，调用方需持有写操作串行锁
+         */
+        SQLiteStatement getStatement(SQLiteDatabase db, String sql) {
+            SQLiteStatement statement = statements.get(sql);
+            if (statement != null) {
+                hitCount.incrementAndGet();
+                return statement;
+            }
+            missCount.incrementAndGet();
+            statement = db.compileStatement(sql);
+            statements.put(sql, statement);
+            return statement;
+        }
+
+        /**
+         * 关闭所有预编译语句，在连接没有引用时调用
+         */
+        void clear() {
+            statements.evictAll();
+        }
+    }
+
+    /**
+     * SQLiteOpenHelper内部类
+     */
+    private class DatabaseHelper extends SQLiteOpenHelper {
+
+        DatabaseHelper(Context context) {
+            //当调用getWritableDatabase()或 getReadableDatabase()方法时,创建一个数据库
+            super(context, DB_NAME, null, DB_VERSION);
+        }
+
         @Override
         public void onCreate(SQLiteDatabase db) {
             for (SQLTable sqlTable : sqLiteTables) {
@@ -354,14 +1796,152 @@ public class SQLiteUtils {
             }
         }
 
+        /**
+         * 打开数据库时同步声明的索引，不需要升级数据库版本
+         * <p>onOpen在onCreate、onUpgrade之后执行，新建和升级数据库后的索引也在此同步。</p>
+         */
+        @Override
+        public void onOpen(SQLiteDatabase db) {
+            if (!db.isReadOnly()) {
+                createIndexes(db);
+            }
+        }
+
+        private void createIndexes(SQLiteDatabase db) {
+            syncIndexes(db);
+            for (SQLTable sqlTable : sqLiteTables) {
+                if (sqlTable.hasFullTextSearch() && !tableExists(db, sqlTable.getFullTextTableName())) {
+                    // 新增的全文检索表需要用已有数据填充
+                    for (String ftsSQL : sqlTable.getFullTextSQLs()) {
+                        db.execSQL(ftsSQL);
+                    }
+                    populateFullTextIndex(db, sqlTable);
+                }
+            }
+        }
+
+        /**
+         * 升级数据库
+         * <p>设置了升级步骤的表按版本号依次执行升级步骤并保留数据，每个步骤在单独的事务中执行并记录耗时；
+         * 旧版本中还不存在的表直接创建；未设置升级步骤的表删除重建。</p>
+         */
         @Override
         public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            List<SQLTable> migratingTables = new ArrayList<>();
             for (SQLTable sqlTable : sqLiteTables) {
                 if (EmptyUtils.isNotEmpty(sqlTable.getTableName()) && EmptyUtils.isNotEmpty(sqlTable.getCreateSQL())) {
+                    if (sqlTable.hasMigrations() && tableExists(db, sqlTable.getTableName())) {
+                        migratingTables.add(sqlTable);
+                        continue;
+                    }
                     db.execSQL("DROP TABLE IF EXISTS " + sqlTable.getTableName());
+                    if (sqlTable.hasFullTextSearch()) {
+                        db.execSQL("DROP TABLE IF EXISTS " + sqlTable.getFullTextTableName());
+                    }
+                    db.execSQL(sqlTable.getCreateSQL());
                 }
             }
-            onCreate(db);
+            for (int version = oldVersion + 1; version <= newVersion; version++) {
+                for (SQLTable sqlTable : migratingTables) {
+                    for (SQLTable.Migration migration : sqlTable.getMigrations(version)) {
+                        migrate(db, sqlTable, version, migration);
+                    }
+                }
+            }
+        }
+
+        private void migrate(SQLiteDatabase db, SQLTable sqlTable, int version, SQLTable.Migration migration) {
+            long start = System.nanoTime();
+            db.beginTransaction();
+            try {
+                migration.migrate(db);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            LogUtils.i("SQLiteUtils", "migrate " + sqlTable.getTableName() + " to version " + version
+                    + " in " + (System.nanoTime() - start) / 1000000 + "ms");
+        }
+
+        /**
+         * 按SQLTable声明同步索引：创建缺少的索引，定义变化的索引删除重建，
+         * 删除之前由本类创建、现在已不再声明的索引
+         * <p>本类创建的索引记录在 {@link #INDEX_TABLE} 中，不会删除其他方式创建的索引；
+         * 未声明过索引时不创建该表。</p>
+         */
+        private void syncIndexes(SQLiteDatabase db) {
+            Map<String, String> declared = new HashMap<>();
+            Set<String> tables = new HashSet<>();
+            for (SQLTable sqlTable : sqLiteTables) {
+                declared.putAll(sqlTable.getIndexes());
+                tables.add(sqlTable.getTableName());
+            }
+            if (declared.isEmpty() && !tableExists(db, INDEX_TABLE)) {
+                return;
+            }
+            db.execSQL("CREATE TABLE IF NOT EXISTS " + INDEX_TABLE + "(name TEXT PRIMARY KEY, table_name TEXT)");
+            Map<String, String> existing = new HashMap<>();
+            Cursor rows = db.rawQuery("SELECT name, sql FROM sqlite_master WHERE type = 'index' AND sql IS NOT NULL", null);
+            try {
+                while (rows.moveToNext()) {
+                    existing.put(rows.getString(0), rows.getString(1));
+                }
+            } finally {
+                rows.close();
+            }
+            Map<String, String> created = new HashMap<>();
+            rows = db.rawQuery("SELECT name, table_name FROM " + INDEX_TABLE, null);
+            try {
+                while (rows.moveToNext()) {
+                    created.put(rows.getString(0), rows.getString(1));
+                }
+            } finally {
+                rows.close();
+            }
+            for (Map.Entry<String, String> index : created.entrySet()) {
+                String name = index.getKey();
+                if (!declared.containsKey(name) && tables.contains(index.getValue())) {
+                    db.execSQL("DROP INDEX IF EXISTS " + name);
+                    db.delete(INDEX_TABLE, "name = ?", new String[]{name});
+                    LogUtils.i("SQLiteUtils", "drop index " + name);
+                }
+            }
+            for (SQLTable sqlTable : sqLiteTables) {
+                for (Map.Entry<String, String> index : sqlTable.getIndexes().entrySet()) {
+                    String name = index.getKey();
+                    String current = existing.get(name);
+                    if (current == null || !normalize(current).equals(normalize(index.getValue()))) {
+                        if (current != null) {
+                            db.execSQL("DROP INDEX " + name);
+                            LogUtils.i("SQLiteUtils", "recreate index " + name);
+                        }
+                        db.execSQL(index.getValue());
+                    }
+                    if (!sqlTable.getTableName().equals(created.get(name))) {
+                        // 之前版本创建的索引也在此补记
+                        ContentValues values = new ContentValues();
+                        values.put("name", name);
+                        values.put("table_name", sqlTable.getTableName());
+                        db.insertWithOnConflict(INDEX_TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+                    }
+                }
+            }
+        }
+
+        /**
+         * 忽略大小写和空白差异比较建索引语句
+         */
+        private String normalize(String sql) {
+            return sql.replaceAll("\\s+", " ").replace("( ", "(").replace(" )", ")").trim().toLowerCase(Locale.US);
+        }
+
+        private boolean tableExists(SQLiteDatabase db, String tableName) {
+            Cursor result = db.rawQuery("SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = ?", new String[]{tableName});
+            try {
+                return result.moveToFirst();
+            } finally {
+                result.close();
+            }
         }
     }
 }
\ No newline at end of file
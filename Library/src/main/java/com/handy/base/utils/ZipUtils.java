@@ -12,6 +12,8 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
@@ -200,6 +202,92 @@ public final class ZipUtils {
         return true;
     }
 
+    /**
+     * gzip压缩文件
+     *
+     * @param resFilePath  待压缩文件路径
+     * @param gzipFilePath 压缩文件路径
+     * @return {@code true}: 压缩成功<br>{@code false}: 压缩失败
+     * @throws IOException IO错误时抛出
+     */
+    public static boolean gzipFile(String resFilePath, String gzipFilePath) throws IOException {
+        return gzipFile(FileUtils.getFileByPath(resFilePath), FileUtils.getFileByPath(gzipFilePath));
+    }
+
+    /**
+     * gzip压缩文件
+     *
+     * @param resFile  待压缩文件
+     * @param gzipFile 压缩文件
+     * @return {@code true}: 压缩成功<br>{@code false}: 压缩失败
+     * @throws IOException IO错误时抛出
+     */
+    public static boolean gzipFile(File resFile, File gzipFile) throws IOException {
+        if (resFile == null || gzipFile == null || !resFile.isFile()) return false;
+        InputStream is = null;
+        FileOutputStream fos = null;
+        OutputStream os = null;
+        try {
+            is = new BufferedInputStream(new FileInputStream(resFile));
+            fos = new FileOutputStream(gzipFile);
+            os = new GZIPOutputStream(fos, 8 * KB);
+            copy(is, os);
+            // 关闭时写入剩余数据，出错需抛出
+            os.close();
+            return true;
+        } finally {
+            // GZIPOutputStream创建失败时也要关闭文件流
+            CloseUtils.closeIO(is, os, fos);
+        }
+    }
+
+    /**
+     * gzip解压文件
+     *
+     * @param gzipFilePath 待解压文件路径
+     * @param destFilePath 目标文件路径
+     * @return {@code true}: 解压成功<br>{@code false}: 解压失败
+     * @throws IOException IO错误时抛出
+     */
+    public static boolean ungzipFile(String gzipFilePath, String destFilePath) throws IOException {
+        return ungzipFile(FileUtils.getFileByPath(gzipFilePath), FileUtils.getFileByPath(destFilePath));
+    }
+
+    /**
+     * gzip解压文件
+     *
+     * @param gzipFile 待解压文件
+     * @param destFile 目标文件
+     * @return {@code true}: 解压成功<br>{@code false}: 解压失败
+     * @throws IOException IO错误时抛出
+     */
+    public static boolean ungzipFile(File gzipFile, File destFile) throws IOException {
+        if (gzipFile == null || destFile == null || !gzipFile.isFile()) return false;
+        FileInputStream fis = null;
+        InputStream is = null;
+        OutputStream os = null;
+        try {
+            fis = new FileInputStream(gzipFile);
+            // 读取gzip头失败时GZIPInputStream抛出异常
+            is = new GZIPInputStream(fis, 8 * KB);
+            os = new BufferedOutputStream(new FileOutputStream(destFile));
+            copy(is, os);
+            // 关闭时写入剩余数据，出错需抛出
+            os.close();
+            return true;
+        } finally {
+            CloseUtils.closeIO(is, fis, os);
+        }
+    }
+
+    private static void copy(InputStream is, OutputStream os) throws IOException {
+        byte buffer[] = new byte[8 * KB];
+        int len;
+        while ((len = is.read(buffer)) != -1) {
+            os.write(buffer, 0, len);
+        }
+    }
+
     /**
      * 批量解压文件
      *
@@ -1,12 +1,26 @@
 package com.handy.base.utils.bean;
 
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
 /**
  * Created by LiuJie on 2017/1/12.
  */
 
 public class SQLTable {
+    public static final String PINYIN_COLUMN = "pinyin_initials"; //全文检索表中保存拼音首字母的列
     private String tableName;
     private String createSQL;
+    private final Map<Integer, List<Migration>> migrations = new TreeMap<>(); //按数据库版本号排序的升级步骤
+    private final Map<String, String> indexSQLs = new LinkedHashMap<>(); //索引名及创建语句
+    private String[] fullTextColumns = new String[0]; //全文检索列
+    private String[] pinyinColumns = new String[0]; //需要按拼音首字母检索的列
 
     public SQLTable(String tableName, String createSQL) {
         this.tableName = tableName;
@@ -36,4 +50,164 @@ public class SQLTable {
     public void setCreateSQL(String createSQL) {
         this.createSQL = createSQL;
     }
+
+    /**
+     * 声明索引，创建表、升级数据库和打开数据库时自动创建
+     * <p>索引定义变化时删除重建；不再声明的索引在下次打开数据库时删除。</p>
+     *
+     * @param indexName 索引名，如 idx_user_name
+     * @param columns   索引列，可带排序 "name", "age DESC"
+     */
+    public void addIndex(String indexName, String... columns) {
+        addIndex(false, indexName, columns);
+    }
+
+    /**
+     * 声明唯一索引，创建和更新方式同 {@link #addIndex(String, String...)}
+     *
+     * @param indexName 索引名
+     * @param columns   索引列
+     */
+    public void addUniqueIndex(String indexName, String... columns) {
+        addIndex(true, indexName, columns);
+    }
+
+    private void addIndex(boolean unique, String indexName, String... columns) {
+        // 与 sqlite_master 中保存的语句格式一致，以便比较索引定义是否变化
+        StringBuilder sql = new StringBuilder("CREATE ").append(unique ? "UNIQUE " : "").append("INDEX ")
+                .append(indexName).append(" ON ").append(tableName).append(" (");
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(columns[i]);
+        }
+        indexSQLs.put(indexName, sql.append(')').toString());
+    }
+
+    /**
+     * @return 索引名及对应的创建语句
+     */
+    public Map<String, String> getIndexes() {
+        return Collections.unmodifiableMap(indexSQLs);
+    }
+
+    /**
+     * 设置全文检索列
+     * <p>设置后自动创建名为 表名_fts 的FTS4全文检索表，使用 SQLiteUtils.search() 检索。
+     * FTS4自带的分词器不能切分汉字，检索表中保存的是由 SQLiteUtils 按相邻两字切分后的文本，
+     * 在通过 SQLiteUtils 插入、更新数据时生成，删除数据时由触发器同步；
+     * 通过其他方式插入或更新数据后需调用 SQLiteUtils.rebuildFullTextIndex() 重建。</p>
+     *
+     * @param columns 全文检索列
+     */
+    public void setFullTextColumns(String... columns) {
+        this.fullTextColumns = columns;
+    }
+
+    public String[] getFullTextColumns() {
+        return fullTextColumns;
+    }
+
+    /**
+     * 设置需要按拼音首字母检索的列，如姓名“张三”可以用“zs”检索到
+     * <p>拼音首字母与全文检索列一起生成，以空格分隔各列。</p>
+     *
+     * @param columns 需要按拼音首字母检索的列
+     */
+    public void setPinyinColumns(String... columns) {
+        this.pinyinColumns = columns;
+    }
+
+    public String[] getPinyinColumns() {
+        return pinyinColumns;
+    }
+
+    public boolean hasFullTextSearch() {
+        return fullTextColumns.length > 0;
+    }
+
+    public String getFullTextTableName() {
+        return tableName + "_fts";
+    }
+
+    /**
+     * 获取全文检索表及删除同步触发器的创建语句，在全文检索表不存在时执行
+     * <p>Android 4.0 自带的SQLite不支持 CREATE VIRTUAL TABLE IF NOT EXISTS。</p>
+     */
+    public List<String> getFullTextSQLs() {
+        List<String> sqls = new ArrayList<>();
+        if (!hasFullTextSearch()) {
+            return sqls;
+        }
+        String fts = getFullTextTableName();
+        sqls.add("CREATE VIRTUAL TABLE " + fts + " USING fts4(" + join(fullTextColumns)
+                + (pinyinColumns.length > 0 ? ", " + PINYIN_COLUMN : "") + ")");
+        sqls.add("CREATE TRIGGER IF NOT EXISTS " + fts + "_ad AFTER DELETE ON " + tableName
+                + " BEGIN DELETE FROM " + fts + " WHERE docid = old.rowid; END");
+        return sqls;
+    }
+
+    private static String join(String[] columns) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(columns[i]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 添加升级到指定数据库版本时执行的SQL语句
+     * <p>设置了升级步骤的表在数据库升级时保留数据，按版本号依次执行升级步骤；未设置升级步骤的表升级时删除重建。</p>
+     *
+     * @param version 数据库版本号
+     * @param sqls    升级语句，如 ALTER TABLE db_user ADD COLUMN age INTEGER;
+     */
+    public void addMigration(int version, final String... sqls) {
+        addMigration(version, new Migration() {
+            @Override
+            public void migrate(SQLiteDatabase db) {
+                for (String sql : sqls) {
+                    db.execSQL(sql);
+                }
+            }
+        });
+    }
+
+    /**
+     * 添加升级到指定数据库版本时执行的升级步骤，同一版本的多个步骤按添加顺序执行
+     *
+     * @param version   数据库版本号
+     * @param migration 升级步骤
+     */
+    public void addMigration(int version, Migration migration) {
+        List<Migration> steps = migrations.get(version);
+        if (steps == null) {
+            steps = new ArrayList<>();
+            migrations.put(version, steps);
+        }
+        steps.add(migration);
+    }
+
+    public boolean hasMigrations() {
+        return !migrations.isEmpty();
+    }
+
+    /**
+     * 获取升级到指定数据库版本时执行的升级步骤
+     */
+    public List<Migration> getMigrations(int version) {
+        List<Migration> steps = migrations.get(version);
+        return steps == null ? Collections.<Migration>emptyList() : steps;
+    }
+
+    /**
+     * 升级步骤
+     */
+    public interface Migration {
+        void migrate(SQLiteDatabase db);
+    }
 }
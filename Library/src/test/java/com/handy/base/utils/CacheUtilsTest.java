@@ -0,0 +1,422 @@
+package com.handy.base.utils;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * CacheUtils 单元测试
+ * <p>覆盖journal回放与压缩、内存缓存的数据隔离、文件头及旧版本文本前缀、摘要文件名及旧文件名迁移、批量写入及deflate压缩。</p>
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class CacheUtilsTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int MAGIC = 0x48444243;
+    private static final int NO_SAVE_TIME = -1;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File cacheDir;
+
+    @Before
+    public void setUp() throws IOException {
+        cacheDir = folder.newFolder("cache");
+    }
+
+    @Test
+    public void journalReplayRestoresEntriesAndOrder() throws Exception {
+        CacheUtils cache = open(Integer.MAX_VALUE);
+        cache.put("a", "A");
+        cache.put("b", "B");
+        cache.put("c", "C");
+        assertEquals("A", cache.getAsString("a"));
+        assertTrue(cache.remove("b"));
+
+        List<String> lines = journal();
+        assertEquals("com.handy.base.utils.CacheUtils", lines.get(0));
+        assertEquals("3", lines.get(1));
+        assertEquals("DIRTY " + entryName("a"), lines.get(2));
+        assertTrue(lines.get(3).startsWith("CLEAN " + entryName("a") + " "));
+        assertTrue(lines.contains("READ " + entryName("a")));
+        assertEquals("REMOVE " + entryName("b"), lines.get(lines.size() - 1));
+
+        // 重新打开时回放journal，LRU顺序为 c、a，数量上限为1时淘汰c
+        CacheUtils reopened = open(1);
+        assertEquals("A", reopened.getAsString("a"));
+        assertNull(reopened.getAsString("b"));
+        assertNull(reopened.getAsString("c"));
+        assertFalse(new File(cacheDir, entryName("c")).exists());
+    }
+
+    @Test
+    public void writesDuringLoadingAreIndexed() throws Exception {
+        CacheUtils cache = open(Integer.MAX_VALUE);
+        cache.put("b", "B");
+
+        // 索引加载期间的读写不等待加载完成，加载完成后写入journal
+        CacheUtils loading = openLoading(Integer.MAX_VALUE);
+        loading.put("a", "A");
+        assertEquals("A", loading.getAsString("a"));
+        assertTrue(loading.remove("b"));
+        awaitInitialized(loading);
+        List<String> lines = journal();
+        assertTrue(lines.contains("REMOVE " + entryName("b")));
+        boolean clean = false;
+        for (String line : lines) {
+            clean |= line.startsWith("CLEAN " + entryName("a") + " ");
+        }
+        assertTrue(clean);
+
+        CacheUtils reopened = open(Integer.MAX_VALUE);
+        assertEquals("A", reopened.getAsString("a"));
+        assertNull(reopened.getAsString("b"));
+    }
+
+    @Test
+    public void dirtyEntryIsRecoveredFromDisk() throws Exception {
+        CacheUtils cache = open(Integer.MAX_VALUE);
+        cache.put("a", "A");
+        // 模拟文件重命名到位后、写入CLEAN记录前进程退出
+        File file = new File(cacheDir, entryName("b"));
+        File tempFile = new File(file.getPath() + ".tmp");
+        write(file, entry(3, System.currentTimeMillis(), NO_SAVE_TIME, "b", "B".getBytes(UTF_8)));
+        write(tempFile, "partial".getBytes(UTF_8));
+        FileOutputStream out = new FileOutputStream(new File(cacheDir, "journal"), true);
+        try {
+            out.write(("DIRTY " + entryName("b") + "\nDIRTY " + entryName("c") + "\n").getBytes(UTF_8));
+        } finally {
+            out.close();
+        }
+
+        CacheUtils reopened = open(Integer.MAX_VALUE);
+        List<String> lines = journal();
+        assertTrue(lines.contains("CLEAN " + entryName("b") + " " + file.length()));
+        assertFalse(lines.contains("DIRTY " + entryName("c")));
+        assertFalse(tempFile.exists());
+        assertEquals("B", reopened.getAsString("b"));
+        assertEquals("A", reopened.getAsString("a"));
+    }
+
+    @Test
+    public void corruptJournalFallsBackToDirectoryScan() throws Exception {
+        CacheUtils cache = open(Integer.MAX_VALUE);
+        cache.put("a", "A");
+        write(new File(cacheDir, "journal"), "garbage\n".getBytes(UTF_8));
+
+        CacheUtils reopened = open(Integer.MAX_VALUE);
+        assertEquals("A", reopened.getAsString("a"));
+        assertEquals("com.handy.base.utils.CacheUtils", journal().get(0));
+    }
+
+    @Test
+    public void journalIsCompactedAfterManyReads() throws Exception {
+        CacheUtils cache = open(Integer.MAX_VALUE);
+        cache.put("a", "A");
+        for (int i = 0; i < 2100; i++) {
+            assertEquals("A", cache.getAsString("a"));
+        }
+        // 写入记录会刷新journal
+        cache.put("b", "B");
+        List<String> lines = journal();
+        assertTrue("journal has " + lines.size() + " lines", lines.size() < 200);
+        assertEquals("A", open(Integer.MAX_VALUE).getAsString("a"));
+    }
+
+    @Test
+    public void memoryCacheDoesNotShareArrays() throws Exception {
+        CacheUtils cache = open(Integer.MAX_VALUE);
+        cache.enableMemoryCache(1024 * 1024, CacheUtils.WRITE_THROUGH);
+        byte[] value = {1, 2, 3};
+        cache.put("data", value);
+        // 修改保存时传入的数组或读取到的数组都不影响缓存中的数据
+        value[0] = 9;
+        byte[] read = cache.getAsBinary("data");
+        assertArrayEquals(new byte[]{1, 2, 3}, read);
+        read[1] = 9;
+        assertArrayEquals(new byte[]{1, 2, 3}, cache.getAsBinary("data"));
+        assertTrue(cache.getAsByteBuffer("data").isReadOnly());
+        cache.disableMemoryCache();
+    }
+
+    @Test
+    public void readsHeaderAndLegacyPrefix() throws Exception {
+        long now = System.currentTimeMillis();
+        byte[] value = repeat("version 3 ", 100).getBytes(UTF_8);
+        write(new File(cacheDir, entryName("v3")), entry(3, now, 3600, "v3", value));
+        write(new File(cacheDir, entryName("expired")), entry(3, now - 10000, 1, "expired", value));
+        write(new File(cacheDir, entryName("prefixed")), (now + "-3600 legacy value").getBytes(UTF_8));
+        write(new File(cacheDir, entryName("plain")), "no prefix".getBytes(UTF_8));
+
+        CacheUtils cache = open(Integer.MAX_VALUE);
+        assertArrayEquals(value, cache.getAsBinary("v3"));
+        // 过期的文件只读取文件头即被删除
+        assertNull(cache.getAsBinary("expired"));
+        assertFalse(new File(cacheDir, entryName("expired")).exists());
+        assertEquals("legacy value", cache.getAsString("prefixed"));
+        assertEquals("no prefix", cache.getAsString("plain"));
+    }
+
+    @Test
+    public void removesUnsupportedHeaderVersion() throws Exception {
+        File future = new File(cacheDir, entryName("future"));
+        write(future, entry(9, System.currentTimeMillis(), NO_SAVE_TIME, "future", "future".getBytes(UTF_8)));
+
+        CacheUtils cache = open(Integer.MAX_VALUE);
+        assertNull(cache.getAsBinary("future"));
+        // 无法读取的文件按损坏数据删除并从索引中移除
+        assertFalse(future.exists());
+        assertTrue(journal().contains("REMOVE " + entryName("future")));
+    }
+
+    @Test
+    public void writesCurrentHeaderVersion() throws Exception {
+        CacheUtils cache = open(Integer.MAX_VALUE);
+        cache.put("key", "value", 60);
+        ByteBuffer file = ByteBuffer.wrap(read(new File(cacheDir, entryName("key"))));
+        assertEquals(MAGIC, file.getInt(0));
+        assertEquals(3, file.get(4));
+        assertEquals(0x01, file.get(5));
+        assertEquals(3, file.getShort(6));
+        assertEquals(60, file.getInt(16));
+        assertEquals(5, file.getInt(20));
+        assertEquals(-1, file.getInt(28));
+        assertEquals("keyvalue", new String(file.array(), 32, 8, UTF_8));
+    }
+
+    @Test
+    public void entryNameIsSha1OfKey() throws Exception {
+        CacheUtils cache = open(Integer.MAX_VALUE);
+        cache.put("abc", "value");
+        assertEquals(new File(cacheDir, "a/99/a9993e364706816aba3e25717850c26c9cd0d89d"), cache.file("abc"));
+    }
+
+    @Test
+    public void keyMismatchIsNotReturned() throws Exception {
+        File other = new File(cacheDir, entryName("other"));
+        write(other, entry(3, System.currentTimeMillis(), NO_SAVE_TIME, "collision", "value".getBytes(UTF_8)));
+
+        CacheUtils cache = open(Integer.MAX_VALUE);
+        // 文件头中的key不一致时不返回其他key的数据
+        assertNull(cache.getAsBinary("other"));
+        assertTrue(other.exists());
+    }
+
+    @Test
+    public void migratesLegacyFileNames() throws Exception {
+        long now = System.currentTimeMillis();
+        File prefixed = new File(cacheDir, String.valueOf("prefixed".hashCode()));
+        File plain = new File(cacheDir, String.valueOf("plain".hashCode()));
+        File expired = new File(cacheDir, String.valueOf("expired".hashCode()));
+        write(prefixed, (now + "-3600 legacy value").getBytes(UTF_8));
+        write(plain, "no prefix".getBytes(UTF_8));
+        write(expired, ((now - 10000) + "-1 old").getBytes(UTF_8));
+
+        CacheUtils cache = open(Integer.MAX_VALUE);
+        assertEquals("legacy value", cache.getAsString("prefixed"));
+        assertEquals("no prefix", cache.getAsString("plain"));
+        assertNull(cache.getAsString("expired"));
+        assertFalse(expired.exists());
+
+        // 按key访问时迁移到以SHA-1摘要命名的两级子目录
+        assertFalse(prefixed.exists());
+        assertFalse(plain.exists());
+        File migrated = new File(cacheDir, entryName("prefixed"));
+        assertTrue(migrated.exists());
+        assertTrue(journal().contains("REMOVE " + prefixed.getName()));
+
+        // 迁移后的文件保留旧的文本前缀，重新打开后仍可读取
+        CacheUtils reopened = open(Integer.MAX_VALUE);
+        assertEquals("legacy value", reopened.getAsString("prefixed"));
+        assertTrue(reopened.remove("plain"));
+        assertFalse(new File(cacheDir, entryName("plain")).exists());
+    }
+
+    @Test
+    public void putAllBinaryStoresNullAsEmpty() throws Exception {
+        CacheUtils cache = open(Integer.MAX_VALUE);
+        Map<String, byte[]> values = new HashMap<>();
+        values.put("empty", null);
+        values.put("data", new byte[]{1, 2, 3});
+        cache.putAllBinary(values);
+        assertArrayEquals(new byte[0], cache.getAsBinary("empty"));
+        assertArrayEquals(new byte[]{1, 2, 3}, cache.getAsBinary("data"));
+    }
+
+    @Test
+    public void deflateRoundTrips() throws Exception {
+        CacheUtils cache = open(Integer.MAX_VALUE);
+        cache.setCompressMode(CacheUtils.COMPRESS_AUTO);
+        String json = repeat("{\"id\":1,\"name\":\"transformer\",\"status\":\"ok\"},", 100);
+        cache.put("json", json);
+        File file = new File(cacheDir, entryName("json"));
+        assertTrue(file.length() < json.length() / 4);
+        assertEquals(0x03, read(file)[5]);
+        assertEquals(json, cache.getAsString("json"));
+
+        // 已压缩格式及过小的数据按原样保存
+        byte[] png = new byte[1024];
+        png[0] = (byte) 0x89;
+        png[1] = 'P';
+        png[2] = 'N';
+        png[3] = 'G';
+        cache.put("png", png);
+        assertEquals(0x01, read(new File(cacheDir, entryName("png")))[5]);
+        assertArrayEquals(png, cache.getAsBinary("png"));
+        cache.put("short", "short");
+        assertEquals("short", cache.getAsString("short"));
+
+        // 单条数据可以关闭压缩
+        cache.put("raw", json, NO_SAVE_TIME, CacheUtils.COMPRESS_NONE);
+        assertTrue(new File(cacheDir, entryName("raw")).length() > json.length());
+        assertEquals(json, cache.getAsString("raw"));
+    }
+
+    @Test
+    public void deflateWithDictionary() throws Exception {
+        CacheUtils cache = open(Integer.MAX_VALUE);
+        cache.setCompressMode(CacheUtils.COMPRESS_AUTO);
+        cache.setCompressDictionary("\"id\":\"name\":\"status\":transformer".getBytes(UTF_8));
+        String json = repeat("{\"id\":2,\"name\":\"transformer\",\"status\":\"fault\"},", 20);
+        cache.put("json", json);
+        assertEquals(json, cache.getAsString("json"));
+
+        // 更换字典后无法解压的数据当作损坏数据删除
+        cache.setCompressDictionary("other".getBytes(UTF_8));
+        assertNull(cache.getAsString("json"));
+        assertFalse(new File(cacheDir, entryName("json")).exists());
+    }
+
+    /**
+     * 以同一缓存目录创建新实例，模拟进程重启
+     */
+    private CacheUtils open(int maxCount) throws Exception {
+        CacheUtils cache = openLoading(maxCount);
+        awaitInitialized(cache);
+        return cache;
+    }
+
+    /**
+     * 创建新实例，不等待索引加载完成
+     */
+    private CacheUtils openLoading(int maxCount) throws Exception {
+        Constructor<CacheUtils> constructor = CacheUtils.class.getDeclaredConstructor(File.class, long.class, int.class);
+        constructor.setAccessible(true);
+        return constructor.newInstance(cacheDir, Long.MAX_VALUE, maxCount);
+    }
+
+    private static void awaitInitialized(CacheUtils cache) throws Exception {
+        Field field = CacheUtils.class.getDeclaredField("mCacheManager");
+        field.setAccessible(true);
+        Object manager = field.get(cache);
+        Method method = manager.getClass().getDeclaredMethod("awaitInitialized");
+        method.setAccessible(true);
+        method.invoke(manager);
+    }
+
+    private List<String> journal() throws IOException {
+        List<String> lines = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new FileReader(new File(cacheDir, "journal")));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+
+    private static String entryName(String key) throws Exception {
+        byte[] bytes = MessageDigest.getInstance("SHA-1").digest(key.getBytes(UTF_8));
+        StringBuilder digest = new StringBuilder();
+        for (byte b : bytes) {
+            digest.append(String.format("%02x", b & 0xFF));
+        }
+        return digest.substring(0, 1) + "/" + digest.substring(1, 3) + "/" + digest;
+    }
+
+    private static void write(File file, byte[] data) throws IOException {
+        File parent = file.getParentFile();
+        if (!parent.exists() && !parent.mkdirs()) {
+            throw new IOException("can't make dirs in " + parent);
+        }
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * 按文件头格式生成缓存文件内容
+     */
+    private static byte[] entry(int version, long writeTime, int saveTime, String key, byte[] value) {
+        byte[] keyBytes = key.getBytes(UTF_8);
+        CRC32 crc32 = new CRC32();
+        crc32.update(value);
+        ByteBuffer buffer = ByteBuffer.allocate(32 + keyBytes.length + value.length);
+        buffer.putInt(MAGIC)
+                .put((byte) version)
+                .put((byte) 0x01)
+                .putShort((short) keyBytes.length)
+                .putLong(writeTime)
+                .putInt(saveTime)
+                .putInt(value.length)
+                .putInt((int) crc32.getValue())
+                .putInt(-1)
+                .put(keyBytes)
+                .put(value);
+        return buffer.array();
+    }
+
+    private static String repeat(String s, int count) {
+        StringBuilder sb = new StringBuilder(s.length() * count);
+        for (int i = 0; i < count; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    private static byte[] read(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            raf.readFully(data);
+        } finally {
+            raf.close();
+        }
+        return data;
+    }
+}
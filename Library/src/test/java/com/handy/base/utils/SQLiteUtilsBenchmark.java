@@ -0,0 +1,309 @@
+package com.handy.base.utils;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.handy.base.utils.bean.SQLTable;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * SQLiteUtils 性能测试
+ * <p>分别以单条、批量、多线程并发三种方式执行插入、查询、更新、删除，
+ * 输出吞吐量及 p50/p95/p99 延迟，并校验结果，修改数据层后可据此对比性能。</p>
+ * <p>耗时较长，默认跳过，使用 {@code gradlew test -Pbenchmark} 执行。</p>
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class SQLiteUtilsBenchmark {
+    private static final int ROWS = 2000;
+    private static final int BATCH_SIZE = 100;
+    private static final int THREADS = 4;
+    private static final String DB_NAME = "bench.db";
+    private static final String TABLE = "bench_record";
+
+    private SQLiteUtils utils;
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(Boolean.getBoolean("benchmark"));
+        utils = open(DB_NAME, true);
+    }
+
+    @After
+    public void tearDown() {
+        if (utils == null) {
+            return;
+        }
+        utils.closeDatabase();
+        RuntimeEnvironment.application.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void insertThroughput() throws Exception {
+        long reopen = insertRows("bench_reopen.db", false);
+        long keepAlive = insertRows("bench_keep_alive.db", true);
+        System.out.println(String.format("SQLiteUtils insert %d rows: open/close per call %d ms (%.0f rows/s), keep alive %d ms (%.0f rows/s)",
+                ROWS, reopen, rowsPerSecond(reopen), keepAlive, rowsPerSecond(keepAlive)));
+    }
+
+    @Test
+    public void insert() throws Exception {
+        measure("insert single", ROWS, 1, 1, new Workload() {
+            @Override
+            public void run(int index) throws Exception {
+                utils.insert(TABLE, null, row(index));
+            }
+        });
+        measure("insert batch", ROWS / BATCH_SIZE, 1, BATCH_SIZE, new Workload() {
+            @Override
+            public void run(int index) throws Exception {
+                List<ContentValues> rows = new ArrayList<>(BATCH_SIZE);
+                for (int i = 0; i < BATCH_SIZE; i++) {
+                    rows.add(row(ROWS + index * BATCH_SIZE + i));
+                }
+                assertEquals(BATCH_SIZE, utils.insertBatch(TABLE, rows));
+            }
+        });
+        measure("insert concurrent", ROWS, THREADS, 1, new Workload() {
+            @Override
+            public void run(int index) throws Exception {
+                utils.insert(TABLE, null, row(ROWS * 2 + index));
+            }
+        });
+        assertEquals(ROWS * 3, count(null, null));
+    }
+
+    @Test
+    public void query() throws Exception {
+        fill();
+        measure("query single", ROWS, 1, 1, new Workload() {
+            @Override
+            public void run(int index) throws Exception {
+                assertEquals("record" + index, findName(index + 1));
+            }
+        });
+        measure("query batch", ROWS / BATCH_SIZE, 1, BATCH_SIZE, new Workload() {
+            @Override
+            public void run(int index) throws Exception {
+                List<String> names = utils.query("SELECT name FROM " + TABLE + " WHERE id BETWEEN ? AND ?",
+                        range(index), new SQLiteUtils.RowMapper<String>() {
+                            @Override
+                            public String mapRow(Cursor cursor) {
+                                return cursor.getString(0);
+                            }
+                        });
+                assertEquals(BATCH_SIZE, names.size());
+            }
+        });
+        measure("query concurrent", ROWS, THREADS, 1, new Workload() {
+            @Override
+            public void run(int index) throws Exception {
+                assertEquals("record" + index, findName(index + 1));
+            }
+        });
+    }
+
+    @Test
+    public void update() throws Exception {
+        fill();
+        measure("update single", ROWS, 1, 1, new Workload() {
+            @Override
+            public void run(int index) throws Exception {
+                assertTrue(updateValue(index + 1, 1));
+            }
+        });
+        measure("update batch", ROWS / BATCH_SIZE, 1, BATCH_SIZE, new Workload() {
+            @Override
+            public void run(final int index) throws Exception {
+                utils.runInTransaction(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int i = 0; i < BATCH_SIZE; i++) {
+                            assertTrue(updateValue(index * BATCH_SIZE + i + 1, 2));
+                        }
+                        return null;
+                    }
+                });
+            }
+        });
+        measure("update concurrent", ROWS, THREADS, 1, new Workload() {
+            @Override
+            public void run(int index) throws Exception {
+                assertTrue(updateValue(index + 1, 3));
+            }
+        });
+        assertEquals(ROWS, count("value = ?", new String[]{"3"}));
+    }
+
+    @Test
+    public void delete() throws Exception {
+        fill();
+        final int third = ROWS / 3 / BATCH_SIZE * BATCH_SIZE;
+        measure("delete single", third, 1, 1, new Workload() {
+            @Override
+            public void run(int index) throws Exception {
+                assertEquals(1, utils.delete(TABLE, "id", index + 1));
+            }
+        });
+        measure("delete batch", third / BATCH_SIZE, 1, BATCH_SIZE, new Workload() {
+            @Override
+            public void run(int index) throws Exception {
+                assertEquals(BATCH_SIZE, utils.delete(TABLE, "id BETWEEN ? AND ?", range(third / BATCH_SIZE + index)));
+            }
+        });
+        measure("delete concurrent", ROWS - third * 2, THREADS, 1, new Workload() {
+            @Override
+            public void run(int index) throws Exception {
+                assertEquals(1, utils.delete(TABLE, "id", third * 2 + index + 1));
+            }
+        });
+        assertEquals(0, count(null, null));
+    }
+
+    /**
+     * 单次操作
+     */
+    private interface Workload {
+        void run(int index) throws Exception;
+    }
+
+    /**
+     * 以threads个线程执行operations次操作，每次操作处理rowsPerOperation行
+     */
+    private static void measure(String name, final int operations, int threads, int rowsPerOperation,
+                                final Workload workload) throws Exception {
+        final long[] latencies = new long[operations];
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Void>> futures = new ArrayList<>(threads);
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            final int first = t;
+            final int step = threads;
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    for (int i = first; i < operations; i += step) {
+                        long begin = System.nanoTime();
+                        workload.run(i);
+                        latencies[i] = System.nanoTime() - begin;
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> future : futures) {
+            // 将工作线程中的断言失败抛出到测试线程
+            future.get();
+        }
+        long elapsed = System.nanoTime() - start;
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.SECONDS);
+
+        Arrays.sort(latencies);
+        System.out.println(String.format("%-18s %6d rows in %5d ms, %8.0f rows/s, p50 %6.1f us, p95 %6.1f us, p99 %6.1f us",
+                name, operations * rowsPerOperation, elapsed / 1000000, operations * rowsPerOperation * 1e9 / elapsed,
+                percentile(latencies, 50), percentile(latencies, 95), percentile(latencies, 99)));
+    }
+
+    private static double percentile(long[] sorted, int percent) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percent / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1000.0;
+    }
+
+    private static SQLiteUtils open(String dbName, boolean keepAlive) {
+        SQLiteUtils utils = SQLiteUtils.getInstance(RuntimeEnvironment.application, 1, dbName);
+        utils.insertSQLTable(new SQLTable(TABLE,
+                "CREATE TABLE " + TABLE + "(id INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT, value INTEGER)"));
+        utils.setKeepAlive(keepAlive);
+        return utils;
+    }
+
+    private static ContentValues row(int index) {
+        ContentValues values = new ContentValues();
+        values.put("name", "record" + index);
+        values.put("value", index);
+        return values;
+    }
+
+    private static String[] range(int batch) {
+        return new String[]{String.valueOf(batch * BATCH_SIZE + 1), String.valueOf((batch + 1) * BATCH_SIZE)};
+    }
+
+    private void fill() throws Exception {
+        List<ContentValues> rows = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            rows.add(row(i));
+        }
+        assertEquals(ROWS, utils.insertBatch(TABLE, rows));
+    }
+
+    private String findName(int id) throws Exception {
+        Cursor cursor = utils.findById(TABLE, "id", id, new String[]{"name"});
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            utils.close();
+        }
+    }
+
+    private boolean updateValue(int id, int value) throws Exception {
+        ContentValues values = new ContentValues();
+        values.put("value", value);
+        return utils.udpate(TABLE, new String[]{"id"}, new String[]{String.valueOf(id)}, values);
+    }
+
+    private int count(String condition, String[] conditionArgs) throws Exception {
+        List<Integer> counts = utils.query("SELECT COUNT(*) FROM " + TABLE + (condition == null ? "" : " WHERE " + condition),
+                conditionArgs, new SQLiteUtils.RowMapper<Integer>() {
+                    @Override
+                    public Integer mapRow(Cursor cursor) {
+                        return cursor.getInt(0);
+                    }
+                });
+        return counts.get(0);
+    }
+
+    private long insertRows(String dbName, boolean keepAlive) throws Exception {
+        SQLiteUtils utils = open(dbName, keepAlive);
+        ContentValues values = new ContentValues();
+        long start = System.nanoTime();
+        for (int i = 0; i < ROWS; i++) {
+            values.put("name", "record" + i);
+            values.put("value", i);
+            utils.insert(TABLE, null, values);
+        }
+        long elapsed = (System.nanoTime() - start) / 1000000;
+        assertEquals(ROWS, utils.findAll(TABLE, null).getCount());
+        utils.close();
+        utils.closeDatabase();
+        RuntimeEnvironment.application.deleteDatabase(dbName);
+        return elapsed;
+    }
+
+    private static double rowsPerSecond(long millis) {
+        return ROWS * 1000.0 / Math.max(1, millis);
+    }
+}
@@ -0,0 +1,280 @@
+package com.handy.base.utils;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.handy.base.utils.bean.SQLTable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * SQLiteUtils 单元测试
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class SQLiteUtilsTest {
+    private static final String DB_NAME = "test.db";
+    private static final String TABLE = "db_fault";
+
+    private SQLiteUtils utils;
+
+    @Before
+    public void setUp() {
+        utils = SQLiteUtils.getInstance(RuntimeEnvironment.application, 1, DB_NAME);
+        SQLTable table = new SQLTable(TABLE,
+                "CREATE TABLE " + TABLE + "(id INTEGER PRIMARY KEY AUTOINCREMENT, code TEXT UNIQUE, title TEXT, owner TEXT)");
+        table.setFullTextColumns("title", "owner");
+        table.setPinyinColumns("owner");
+        utils.insertSQLTable(table);
+    }
+
+    @After
+    public void tearDown() {
+        utils.closeDatabase();
+        RuntimeEnvironment.application.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void searchMatchesChineseSubstring() throws Exception {
+        insert("A1", "变压器故障检修", "张三");
+        insert("A2", "线路巡检，发现绝缘子破损", "李四");
+        insert("A3", "Transformer 变压器 oil leak", "王五");
+
+        assertEquals(2, searchTitles("变压器").size());
+        assertEquals(1, searchTitles("压器故").size());
+        assertEquals(1, searchTitles("变压器 故障").size());
+        assertEquals(1, searchTitles("绝缘子").size());
+        assertEquals(1, searchTitles("修").size());
+        assertEquals(0, searchTitles("故障破损").size());
+        assertEquals(2, searchTitles("检修 OR 巡检").size());
+        assertEquals(1, searchTitles("transformer").size());
+        assertEquals("变压器故障检修", searchTitles("zs").get(0));
+    }
+
+    @Test
+    public void searchFollowsUpdates() throws Exception {
+        insert("A1", "变压器故障检修", "张三");
+        ContentValues values = new ContentValues();
+        values.put("title", "开关柜温度异常");
+        values.put("owner", "李四");
+        utils.udpate(TABLE, new String[]{"code"}, new String[]{"A1"}, values);
+
+        assertEquals(0, searchTitles("变压器").size());
+        assertEquals(1, searchTitles("温度").size());
+        assertEquals(0, searchTitles("zs").size());
+        assertEquals(1, searchTitles("ls").size());
+
+        utils.delete(TABLE, "code = ?", new String[]{"A1"});
+        assertEquals(0, searchTitles("温度").size());
+    }
+
+    @Test
+    public void upsertRemovesReplacedRowFromSearch() throws Exception {
+        insert("A1", "变压器故障检修", "张三");
+        List<ContentValues> rows = new ArrayList<>();
+        ContentValues values = new ContentValues();
+        values.put("code", "A1");
+        values.put("title", "变压器渗油");
+        values.put("owner", "张三");
+        rows.add(values);
+        assertEquals(1, utils.upsertBatch(TABLE, rows));
+
+        List<String> titles = searchTitles("变压器");
+        assertEquals(1, titles.size());
+        assertEquals("变压器渗油", titles.get(0));
+        assertEquals(0, searchTitles("检修").size());
+        // 被替换的旧行不能留在全文检索表中占用检索结果
+        assertEquals(1, count(TABLE + "_fts"));
+
+        // 按主键替换
+        List<Integer> ids = utils.query("SELECT id FROM " + TABLE, null, new SQLiteUtils.RowMapper<Integer>() {
+            @Override
+            public Integer mapRow(Cursor cursor) {
+                return cursor.getInt(0);
+            }
+        });
+        values = new ContentValues();
+        values.put("id", ids.get(0));
+        values.put("code", "A9");
+        values.put("title", "开关柜温度异常");
+        values.put("owner", "王五");
+        rows.set(0, values);
+        assertEquals(1, utils.upsertBatch(TABLE, rows));
+        assertEquals(0, searchTitles("变压器").size());
+        assertEquals(1, searchTitles("温度").size());
+        assertEquals(1, count(TABLE + "_fts"));
+        // 不修改递归触发器设置，避免影响使用方的触发器
+        List<Integer> recursive = utils.query("PRAGMA recursive_triggers", null, new SQLiteUtils.RowMapper<Integer>() {
+            @Override
+            public Integer mapRow(Cursor cursor) {
+                return cursor.getInt(0);
+            }
+        });
+        assertEquals(0, (int) recursive.get(0));
+    }
+
+    @Test
+    public void closeReleasesOpenAndCursorReferences() throws Exception {
+        insert("A1", "变压器故障检修", "张三");
+        insert("A2", "线路巡检", "李四");
+        utils.setKeepAlive(false);
+        utils.open();
+        Cursor rows = utils.findAll(TABLE, null);
+        int found = 0;
+        while (rows.moveToNext()) {
+            // 遍历游标时的嵌套查询不影响外层游标
+            Cursor row = utils.findById(TABLE, "id", rows.getInt(rows.getColumnIndex("id")), null);
+            found += row.getCount();
+            row.close();
+        }
+        assertEquals(2, found);
+        assertFalse(rows.isClosed());
+        Cursor other = utils.findAll(TABLE, null);
+        other.close();
+        assertFalse(rows.isClosed());
+        utils.close();
+        assertTrue(rows.isClosed());
+        // open()和各次查询的引用都已释放，连接随之关闭
+        assertNull(utils.getSqLiteDatabase());
+    }
+
+    @Test
+    public void closeWithoutOwnedReferencesKeepsConnection() throws Exception {
+        insert("A1", "变压器故障检修", "张三");
+        utils.setKeepAlive(false);
+        final Cursor rows = utils.findAll(TABLE, null);
+        final CountDownLatch closed = new CountDownLatch(1);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                // 当前线程未持有游标和open()引用，不释放其他线程的引用
+                utils.close();
+                closed.countDown();
+            }
+        }).start();
+        assertTrue(closed.await(5, TimeUnit.SECONDS));
+        assertNotNull(utils.getSqLiteDatabase());
+        assertTrue(rows.moveToFirst());
+        rows.close();
+        rows.close();
+        assertNull(utils.getSqLiteDatabase());
+    }
+
+    @Test
+    public void writeAheadLoggingKeepsOpenCursorsUsable() throws Exception {
+        insert("A1", "变压器故障检修", "张三");
+        insert("A2", "线路巡检", "李四");
+        utils.enableWriteAheadLogging();
+        Cursor rows = utils.findAll(TABLE, null);
+        final CountDownLatch written = new CountDownLatch(1);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    // 持有查询游标时其他线程的写操作和切换WAL模式不会被阻塞
+                    insert("A3", "开关柜温度异常", "王五");
+                    utils.disableWriteAheadLogging();
+                    written.countDown();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }).start();
+        assertTrue(written.await(5, TimeUnit.SECONDS));
+        assertTrue(rows.moveToFirst());
+        assertTrue(rows.moveToLast());
+        utils.close();
+        assertEquals(3, count(TABLE));
+    }
+
+    @Test
+    public void reopenSyncsDeclaredIndexes() throws Exception {
+        List<SQLTable> tables = new ArrayList<>(utils.getSqLiteTables());
+        tables.get(0).addIndex("idx_fault_owner", "owner");
+        tables.get(0).addIndex("idx_fault_title", "title");
+        assertEquals("CREATE INDEX idx_fault_owner ON " + TABLE + " (owner)", indexSql("idx_fault_owner"));
+        assertEquals("CREATE INDEX idx_fault_title ON " + TABLE + " (title)", indexSql("idx_fault_title"));
+
+        // 修改索引定义并移除一个索引后重新打开数据库
+        utils.closeDatabase();
+        SQLTable table = new SQLTable(TABLE,
+                "CREATE TABLE " + TABLE + "(id INTEGER PRIMARY KEY AUTOINCREMENT, code TEXT UNIQUE, title TEXT, owner TEXT)");
+        table.addIndex("idx_fault_owner", "owner", "title");
+        tables.set(0, table);
+        utils.setSqLiteTables(tables);
+        assertEquals("CREATE INDEX idx_fault_owner ON " + TABLE + " (owner, title)", indexSql("idx_fault_owner"));
+        assertNull(indexSql("idx_fault_title"));
+    }
+
+    @Test
+    public void noIndexTableWithoutDeclaredIndexes() throws Exception {
+        insert("A1", "变压器故障检修", "张三");
+        List<Integer> tables = utils.query("SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' AND name = 'handy_indexes'", null,
+                new SQLiteUtils.RowMapper<Integer>() {
+                    @Override
+                    public Integer mapRow(Cursor cursor) {
+                        return cursor.getInt(0);
+                    }
+                });
+        assertEquals(0, (int) tables.get(0));
+    }
+
+    private void insert(String code, String title, String owner) throws Exception {
+        ContentValues values = new ContentValues();
+        values.put("code", code);
+        values.put("title", title);
+        values.put("owner", owner);
+        utils.insert(TABLE, null, values);
+    }
+
+    private int count(String table) throws Exception {
+        List<Integer> counts = utils.query("SELECT COUNT(*) FROM " + table, null, new SQLiteUtils.RowMapper<Integer>() {
+            @Override
+            public Integer mapRow(Cursor cursor) {
+                return cursor.getInt(0);
+            }
+        });
+        return counts.get(0);
+    }
+
+    private String indexSql(String name) throws Exception {
+        List<String> sqls = utils.query("SELECT sql FROM sqlite_master WHERE type = 'index' AND name = ?", new String[]{name},
+                new SQLiteUtils.RowMapper<String>() {
+                    @Override
+                    public String mapRow(Cursor cursor) {
+                        return cursor.getString(0);
+                    }
+                });
+        return sqls.isEmpty() ? null : sqls.get(0);
+    }
+
+    private List<String> searchTitles(String query) throws Exception {
+        List<String> titles = new ArrayList<>();
+        Cursor cursor = utils.search(TABLE, query, 10);
+        try {
+            while (cursor.moveToNext()) {
+                titles.add(cursor.getString(cursor.getColumnIndex("title")));
+            }
+        } finally {
+            utils.close();
+        }
+        return titles;
+    }
+}